@@ -0,0 +1,150 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BenchmarkCompare {
+
+  public static final String PROPERTY_THRESHOLD = "whirr.cm.benchmark.threshold";
+  public static final double THRESHOLD_DEFAULT = 0.2;
+
+  private static final String COLUMN_BENCHMARK = "Benchmark";
+  private static final String COLUMN_MODE = "Mode";
+  private static final String COLUMN_SCORE = "Score";
+  private static final String COLUMN_UNIT = "Unit";
+  private static final String COLUMN_PARAM_PREFIX = "Param: ";
+  private static final String MODE_THROUGHPUT = "thrpt";
+  private static final String COMMENT_PREFIX = "#";
+
+  public static void main(String[] arguments) throws IOException {
+    if (arguments.length != 2) {
+      System.err.println("Usage: " + BenchmarkCompare.class.getSimpleName() + " <baseline-csv> <results-csv>");
+      System.exit(2);
+    }
+    double threshold = Double.parseDouble(System.getProperty(PROPERTY_THRESHOLD, "" + THRESHOLD_DEFAULT));
+    List<String> regressions = compare(read(new File(arguments[0])), read(new File(arguments[1])), threshold,
+        System.out);
+    if (!regressions.isEmpty()) {
+      System.err.println("Benchmark regressions beyond " + Math.round(threshold * 100) + "% of baseline: "
+          + regressions);
+      System.exit(1);
+    }
+  }
+
+  public static List<String> compare(Map<String, String[]> baseline, Map<String, String[]> results,
+      double threshold, Appendable out) throws IOException {
+    List<String> regressions = new ArrayList<String>();
+    if (baseline.isEmpty()) {
+      out.append("No baseline recorded, skipping comparison\n");
+      return regressions;
+    }
+    for (String benchmark : results.keySet()) {
+      String[] result = results.get(benchmark);
+      String[] base = baseline.get(benchmark);
+      if (base == null) {
+        out.append(String.format("%-80s %12s -> %12s %s (new)%n", benchmark, "", result[1], result[2]));
+        continue;
+      }
+      double scoreBase = Double.parseDouble(base[1]);
+      double scoreResult = Double.parseDouble(result[1]);
+      double change = scoreBase == 0 ? 0 : (scoreResult - scoreBase) / scoreBase;
+      if (MODE_THROUGHPUT.equals(result[0])) {
+        change = -change;
+      }
+      out.append(String.format("%-80s %12s -> %12s %s (%+.1f%%)%n", benchmark, base[1], result[1], result[2],
+          change * 100));
+      if (change > threshold) {
+        regressions.add(benchmark);
+      }
+    }
+    return regressions;
+  }
+
+  // Returns benchmark (with params) to [mode, score, unit]
+  public static Map<String, String[]> read(File file) throws IOException {
+    Map<String, String[]> scores = new LinkedHashMap<String, String[]>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String[] header = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().length() == 0 || line.startsWith(COMMENT_PREFIX)) {
+          continue;
+        }
+        String[] columns = split(line);
+        if (header == null) {
+          header = columns;
+          continue;
+        }
+        StringBuilder benchmark = new StringBuilder();
+        String mode = null;
+        String score = null;
+        String unit = null;
+        for (int i = 0; i < header.length && i < columns.length; i++) {
+          if (header[i].equals(COLUMN_BENCHMARK)) {
+            benchmark.insert(0, columns[i]);
+          } else if (header[i].equals(COLUMN_MODE)) {
+            mode = columns[i];
+          } else if (header[i].equals(COLUMN_SCORE)) {
+            score = columns[i];
+          } else if (header[i].equals(COLUMN_UNIT)) {
+            unit = columns[i];
+          } else if (header[i].startsWith(COLUMN_PARAM_PREFIX) && columns[i].length() > 0) {
+            benchmark.append(':').append(header[i].substring(COLUMN_PARAM_PREFIX.length())).append('=')
+                .append(columns[i]);
+          }
+        }
+        if (score != null) {
+          scores.put(benchmark.toString(), new String[] { mode, score, unit });
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return scores;
+  }
+
+  private static String[] split(String line) {
+    List<String> columns = new ArrayList<String>();
+    StringBuilder column = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char character = line.charAt(i);
+      if (character == '"') {
+        quoted = !quoted;
+      } else if (character == ',' && !quoted) {
+        columns.add(column.toString());
+        column.setLength(0);
+      } else {
+        column.append(character);
+      }
+    }
+    columns.add(column.toString());
+    return columns.toArray(new String[columns.size()]);
+  }
+
+}
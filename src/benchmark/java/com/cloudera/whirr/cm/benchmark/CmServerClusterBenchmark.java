@@ -0,0 +1,123 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.benchmark;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.whirr.cm.server.CmServerCluster;
+import com.cloudera.whirr.cm.server.CmServerException;
+import com.cloudera.whirr.cm.server.CmServerService;
+import com.cloudera.whirr.cm.server.CmServerServiceBuilder;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CmServerClusterBenchmark {
+
+  private static final String CLUSTER_TAG = "benchmark";
+
+  private static final CmServerServiceType[] TYPES_MASTER = new CmServerServiceType[] {
+      CmServerServiceType.HDFS_NAMENODE, CmServerServiceType.HDFS_SECONDARY_NAMENODE,
+      CmServerServiceType.YARN_RESOURCE_MANAGER, CmServerServiceType.YARN_JOB_HISTORY,
+      CmServerServiceType.HBASE_MASTER, CmServerServiceType.ZOOKEEPER_SERVER, CmServerServiceType.HIVE_METASTORE,
+      CmServerServiceType.OOZIE_SERVER, CmServerServiceType.HUE_SERVER, CmServerServiceType.IMPALA_STATE_STORE };
+
+  private static final CmServerServiceType[] TYPES_WORKER = new CmServerServiceType[] {
+      CmServerServiceType.HDFS_DATANODE, CmServerServiceType.YARN_NODE_MANAGER,
+      CmServerServiceType.HBASE_REGIONSERVER, CmServerServiceType.IMPALA_DAEMON };
+
+  @Param({ "10", "100", "1000" })
+  public int nodes;
+
+  @Param({ "1000" })
+  public int settings;
+
+  private CmServerCluster cluster;
+
+  @Setup
+  public void setup() throws CmServerException {
+    cluster = new CmServerCluster();
+    cluster.setServer(new CmServerServiceBuilder().ip("10.0.0.1").build());
+    for (int i = 0; i < TYPES_MASTER.length; i++) {
+      cluster.addService(new CmServerServiceBuilder().type(TYPES_MASTER[i]).tag(CLUSTER_TAG).qualifier("1")
+          .host("master-" + i).build());
+    }
+    int qualifier = 2;
+    for (int i = 0; i < nodes; i++) {
+      String host = "worker-" + i;
+      cluster.addAgent(new CmServerServiceBuilder().host(host).build());
+      for (CmServerServiceType type : TYPES_WORKER) {
+        cluster.addService(new CmServerServiceBuilder().type(type).tag(CLUSTER_TAG).qualifier("" + qualifier++)
+            .host(host).build());
+      }
+    }
+    for (int i = 0; i < settings; i++) {
+      cluster.addServiceConfiguration("" + (3 + i % 5), TYPES_WORKER[i % TYPES_WORKER.length].getId(), "setting_"
+          + i, "value_" + i);
+    }
+  }
+
+  @Benchmark
+  public Set<CmServerService> getServicesCluster() {
+    return cluster.getServices(CmServerServiceType.CLUSTER);
+  }
+
+  @Benchmark
+  public Set<CmServerService> getServicesRole() {
+    return cluster.getServices(CmServerServiceType.HDFS_DATANODE);
+  }
+
+  @Benchmark
+  public Set<CmServerServiceType> getServiceTypes() {
+    return cluster.getServiceTypes();
+  }
+
+  @Benchmark
+  public Set<CmServerServiceType> getServiceTypesVersioned() {
+    return cluster.getServiceTypes(CmServerServiceType.CLUSTER, 6, 5);
+  }
+
+  @Benchmark
+  public Map<String, Map<String, String>> getServiceConfiguration() {
+    return cluster.getServiceConfiguration(6);
+  }
+
+  @Benchmark
+  public String getServiceConfigurationSetting() {
+    return cluster.getServiceConfiguration(6).get(CmServerServiceType.HDFS_DATANODE.getId()).get("setting_0");
+  }
+
+}
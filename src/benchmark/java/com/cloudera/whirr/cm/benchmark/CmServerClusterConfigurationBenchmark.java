@@ -0,0 +1,98 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.CompositeConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.whirr.cm.CmConstants;
+import com.cloudera.whirr.cm.CmServerClusterConfiguration;
+
+// Compiles the cluster configuration on every invocation, bypassing the CmServerClusterInstance cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CmServerClusterConfigurationBenchmark {
+
+  private static final String[] ROLES = new String[] { "hdfs", "namenode", "datanode", "yarn", "resourcemanager",
+      "nodemanager", "hbase", "regionserver", "impalad", "oozie" };
+
+  @Param({ "100", "1000", "5000" })
+  public int settings;
+
+  private Configuration configuration;
+  private SortedSet<String> mounts;
+
+  @Setup
+  public void setup() throws ConfigurationException {
+    BaseConfiguration overrides = new BaseConfiguration();
+    for (int i = 0; i < settings; i++) {
+      String role = ROLES[i % ROLES.length];
+      if (i % 4 == 0) {
+        overrides.setProperty(CmConstants.CONFIG_WHIRR_CM_CONFIG_PREFIX + (5 + i % 3) + "." + role + ".setting_" + i,
+            "value_" + i);
+      } else {
+        overrides.setProperty(CmConstants.CONFIG_WHIRR_CM_CONFIG_PREFIX + role + ".setting_" + i, "value_" + i);
+      }
+    }
+    CompositeConfiguration configuration = new CompositeConfiguration();
+    configuration.addConfiguration(overrides);
+    configuration.addConfiguration(new PropertiesConfiguration(getClass().getClassLoader().getResource(
+        CmConstants.CONFIG_WHIRR_DEFAULT_FILE)));
+    this.configuration = configuration;
+    mounts = new TreeSet<String>();
+    for (int i = 1; i <= 8; i++) {
+      mounts.add("/data/" + i);
+    }
+  }
+
+  @Benchmark
+  public Map<String, Map<String, Map<String, String>>> compile() throws IOException {
+    return new CmServerClusterConfiguration(configuration, mounts).getConfiguration();
+  }
+
+  @Benchmark
+  public String compileSetting() throws IOException {
+    return new CmServerClusterConfiguration(configuration, mounts).getSettingBySuffix("HIVEMETASTORE", "HIVE",
+        CmConstants.CONFIG_CM_DB_SUFFIX_TYPE);
+  }
+
+}
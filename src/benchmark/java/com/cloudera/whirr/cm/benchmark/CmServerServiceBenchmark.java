@@ -0,0 +1,106 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.whirr.cm.server.CmServerService;
+import com.cloudera.whirr.cm.server.CmServerServiceBuilder;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CmServerServiceBenchmark {
+
+  private static final String CLUSTER_TAG = "benchmark";
+
+  private CmServerServiceType[] types;
+  private String[] names;
+  private String[] ids;
+  private CmServerService[] services;
+  private int index;
+
+  @Setup
+  public void setup() {
+    types = CmServerServiceType.values();
+    names = new String[types.length];
+    ids = new String[types.length];
+    services = new CmServerService[types.length];
+    for (int i = 0; i < types.length; i++) {
+      services[i] = new CmServerServiceBuilder().type(types[i]).tag(CLUSTER_TAG).qualifier("" + (i + 1))
+          .host("host-" + i).ip("10.0.0." + i).build();
+      names[i] = services[i].getName();
+      ids[i] = types[i].getId();
+    }
+  }
+
+  private int next() {
+    if (++index == types.length) {
+      index = 0;
+    }
+    return index;
+  }
+
+  @Benchmark
+  public CmServerService buildFromType() {
+    int i = next();
+    return new CmServerServiceBuilder().type(types[i]).tag(CLUSTER_TAG).qualifier("1").host("host-" + i).build();
+  }
+
+  @Benchmark
+  public CmServerService buildFromName() {
+    return new CmServerServiceBuilder().name(names[next()]).host("host").build();
+  }
+
+  @Benchmark
+  public int compareTo() {
+    int i = next();
+    return services[i].compareTo(services[(i + 1) % services.length]);
+  }
+
+  @Benchmark
+  public int hashCodeCached() {
+    return services[next()].hashCode();
+  }
+
+  @Benchmark
+  public int hashCodeUncached() {
+    return new CmServerServiceBuilder().name(names[next()]).build().hashCode();
+  }
+
+  @Benchmark
+  public CmServerServiceType valueOfId() {
+    return CmServerServiceType.valueOfId(ids[next()]);
+  }
+
+}
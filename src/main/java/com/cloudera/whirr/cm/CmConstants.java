@@ -37,10 +37,45 @@ public interface CmConstants extends CmServerConstants {
   public static final String CONFIG_WHIRR_AUTO = "whirr.cm.auto";
   public static final String CONFIG_WHIRR_USE_PACKAGES = "whirr.cm.use.packages";
   public static final String CONFIG_WHIRR_DATA_DIRS_ROOT = "whirr.cm.data.dirs.root";
+  public static final String CONFIG_WHIRR_DATA_DIRS_FS = "whirr.cm.data.dirs.fs";
+  public static final String CONFIG_WHIRR_DATA_DIRS_OPTIONS = "whirr.cm.data.dirs.options";
+  public static final String CONFIG_WHIRR_DATA_DIRS_RESERVED = "whirr.cm.data.dirs.reserved";
+  public static final String CONFIG_WHIRR_OS_PROFILE = "whirr.cm.os.profile";
+  public static final String CONFIG_WHIRR_OS_SWAPPINESS = "whirr.cm.os.swappiness";
+  public static final String CONFIG_WHIRR_OS_THP = "whirr.cm.os.thp";
+  public static final String CONFIG_WHIRR_OS_NOFILE = "whirr.cm.os.nofile";
+  public static final String CONFIG_WHIRR_OS_NPROC = "whirr.cm.os.nproc";
+  public static final String CONFIG_WHIRR_OS_NET_BUFFER = "whirr.cm.os.net.buffer";
+  public static final String CONFIG_WHIRR_OS_IO_SCHEDULER = "whirr.cm.os.io.scheduler";
+  public static final String CONFIG_WHIRR_OS_RPS = "whirr.cm.os.rps";
+  public static final String CONFIG_WHIRR_BALANCER_MAXCONN = "whirr.cm.balancer.maxconn";
+  public static final String CONFIG_WHIRR_BALANCER_SERVER_MAXCONN = "whirr.cm.balancer.server.maxconn";
+  public static final String CONFIG_WHIRR_BALANCER_TIMEOUT_CONNECT = "whirr.cm.balancer.timeout.connect";
+  public static final String CONFIG_WHIRR_BALANCER_TIMEOUT_TCP = "whirr.cm.balancer.timeout.tcp";
+  public static final String CONFIG_WHIRR_BALANCER_TIMEOUT_HTTP = "whirr.cm.balancer.timeout.http";
+  public static final String CONFIG_WHIRR_BALANCER_CHECK_INTERVAL = "whirr.cm.balancer.check.interval";
   public static final String CONFIG_WHIRR_FIREWALL_ENABLE = "whirr.cm.firewall.enable";
   public static final String CONFIG_WHIRR_DB_TYPE = "whirr.cm.db.type";
+  public static final String CONFIG_WHIRR_DB_BUFFER_MB = "whirr.cm.db.buffer.mb";
+  public static final String CONFIG_WHIRR_DB_LOG_MB = "whirr.cm.db.log.mb";
+  public static final String CONFIG_WHIRR_DB_CONNECTIONS_MAX = "whirr.cm.db.connections.max";
+  public static final String CONFIG_WHIRR_DB_IO_CAPACITY = "whirr.cm.db.io.capacity";
   public static final String CONFIG_WHIRR_CM_CONFIG_PREFIX = "whirr.cm.config.";
   public static final String CONFIG_WHIRR_CM_LICENSE_URI = "whirr.cm.license.uri";
+  public static final String CONFIG_WHIRR_LOG_JSON = "whirr.cm.log.json";
+  public static final String CONFIG_WHIRR_LOG_ASYNC = "whirr.cm.log.async";
+  public static final String CONFIG_WHIRR_HISTORY_FILE = "whirr.cm.history.file";
+  public static final String CONFIG_WHIRR_PARCEL_CACHE = "whirr.cm.parcel.cache";
+  public static final String CONFIG_WHIRR_IMAGE_PREBAKED = "whirr.cm.image.prebaked";
+  public static final String CONFIG_WHIRR_IMAGE_MANIFEST = "whirr.cm.image.manifest";
+  public static final String CONFIG_WHIRR_ARTEFACT_CACHE = "whirr.cm.artefact.cache";
+  public static final String CONFIG_WHIRR_ARTEFACT_DIR = "whirr.cm.artefact.dir";
+  public static final String CONFIG_WHIRR_OOZIE_EXT_URL = "whirr.cm.oozie.ext.url";
+  public static final String CONFIG_WHIRR_OOZIE_EXT_SHA1 = "whirr.cm.oozie.ext.sha1";
+  public static final String CONFIG_WHIRR_JDK_URL = "whirr.cm.jdk.url";
+  public static final String CONFIG_WHIRR_JDK_SHA1 = "whirr.cm.jdk.sha1";
+  public static final String CONFIG_WHIRR_JDK_IMPALA_URL = "whirr.cm.jdk.impala.url";
+  public static final String CONFIG_WHIRR_JDK_IMPALA_SHA1 = "whirr.cm.jdk.impala.sha1";
 
   public static final String CONFIG_WHIRR_INTERNAL_AGENT_LOG_FILE = "whirr.cm.agent.log.file";
   public static final String CONFIG_WHIRR_INTERNAL_AGENT_PARCELS_DIR = "whirr.cm.agent.parcels.dir";
@@ -52,7 +87,9 @@ public interface CmConstants extends CmServerConstants {
   public static final String CONFIG_WHIRR_INTERNAL_PORT_NAV = CmServerHandler.ROLE + ".port.nav";
   public static final String CONFIG_WHIRR_INTERNAL_PORT_HUE = CmServerHandler.ROLE + ".port.hue";
   public static final String CONFIG_WHIRR_INTERNAL_PORT_COMMS = CmServerHandler.ROLE + ".port.comms";
-  public static final String CONFIG_WHIRR_INTERNAL_PORT_BALANCER_IMPALA = CmBalancerHandler.ROLE + ".port.impala";
+  public static final String CONFIG_WHIRR_INTERNAL_PORT_BALANCER_PREFIX = CmBalancerHandler.ROLE + ".port.";
+  public static final String CONFIG_WHIRR_INTERNAL_PORT_BALANCER_IMPALA = CONFIG_WHIRR_INTERNAL_PORT_BALANCER_PREFIX
+      + "impala";
 
   public static final String CONFIG_WHIRR_NAME_DEFAULT = "whirr";
 
@@ -65,6 +102,8 @@ public interface CmConstants extends CmServerConstants {
   public static final String CONFIG_CM_DB_SUFFIX_PORT = "database_port";
   public static final String CONFIG_CM_DB_SUFFIX_NAME = "database_name";
 
+  public static final String CONFIG_CM_PARCEL_REPO_PATH = "parcel_repo_path";
+
   public static final String CONFIG_CM_LICENSE_PROVIDED = "license_provided";
   public static final String CONFIG_CM_TASKTRACKER_INSTRUMENTATION = "mapred_tasktracker_instrumentation";
 
@@ -0,0 +1,95 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.whirr.service.ClusterActionHandler;
+
+import com.cloudera.whirr.cm.handler.cdh.BaseHandlerCmCdh;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+
+// Immutable role and type lookups, built once from the registered handlers rather than per cluster build
+public class CmRoleRegistry {
+
+  private static volatile CmRoleRegistry registry = new CmRoleRegistry();
+
+  private final Map<String, CmServerServiceType> roleToType;
+  private final Map<CmServerServiceType, Class<? extends BaseHandlerCmCdh>> typeToHandler;
+  private final Map<CmServerServiceType, Set<CmServerServiceType>> typeToChildren;
+
+  private CmRoleRegistry() {
+    Map<String, CmServerServiceType> roleToType = new HashMap<String, CmServerServiceType>();
+    Map<CmServerServiceType, Class<? extends BaseHandlerCmCdh>> typeToHandler = new EnumMap<CmServerServiceType, Class<? extends BaseHandlerCmCdh>>(
+        CmServerServiceType.class);
+    for (ClusterActionHandler handler : ServiceLoader.load(ClusterActionHandler.class)) {
+      if (handler instanceof BaseHandlerCmCdh) {
+        roleToType.put(handler.getRole(), ((BaseHandlerCmCdh) handler).getType());
+        typeToHandler.put(((BaseHandlerCmCdh) handler).getType(), ((BaseHandlerCmCdh) handler).getClass());
+      }
+    }
+    Map<CmServerServiceType, Set<CmServerServiceType>> typeToChildren = new EnumMap<CmServerServiceType, Set<CmServerServiceType>>(
+        CmServerServiceType.class);
+    for (CmServerServiceType type : CmServerServiceType.values()) {
+      typeToChildren.put(type, new TreeSet<CmServerServiceType>());
+    }
+    for (CmServerServiceType type : CmServerServiceType.values()) {
+      if (type.getParent() != null) {
+        typeToChildren.get(type.getParent()).add(type);
+      }
+    }
+    for (CmServerServiceType type : CmServerServiceType.values()) {
+      typeToChildren.put(type, Collections.unmodifiableSet(typeToChildren.get(type)));
+    }
+    this.roleToType = Collections.unmodifiableMap(roleToType);
+    this.typeToHandler = Collections.unmodifiableMap(typeToHandler);
+    this.typeToChildren = Collections.unmodifiableMap(typeToChildren);
+  }
+
+  // Rescans the registered handlers, for use when the handler classpath changes (eg tests)
+  public static synchronized void refresh() {
+    registry = new CmRoleRegistry();
+  }
+
+  public static Map<String, CmServerServiceType> getRolesToType() {
+    return registry.roleToType;
+  }
+
+  public static CmServerServiceType getType(String role) {
+    return registry.roleToType.get(role);
+  }
+
+  public static CmServerServiceType getTypeForId(String id) {
+    return CmServerServiceType.valueOfId(id);
+  }
+
+  public static Class<? extends BaseHandlerCmCdh> getHandler(CmServerServiceType type) {
+    return registry.typeToHandler.get(type);
+  }
+
+  public static Set<CmServerServiceType> getChildren(CmServerServiceType type) {
+    return registry.typeToChildren.get(type);
+  }
+
+}
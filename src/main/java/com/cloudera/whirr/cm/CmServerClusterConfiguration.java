@@ -0,0 +1,224 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+
+// Immutable version/role/setting index compiled in a single pass over the configuration keys
+public class CmServerClusterConfiguration implements CmConstants {
+
+  private static final String SETTING_NONE = new String();
+
+  private final Map<String, Map<String, Map<String, String>>> configuration;
+  private final ConcurrentMap<String, String> settingsBySuffix = new ConcurrentHashMap<String, String>();
+
+  @SuppressWarnings("unchecked")
+  public CmServerClusterConfiguration(Configuration configuration, SortedSet<String> mounts) throws IOException {
+
+    Map<String, Map<String, Map<String, String>>> clusterConfiguration = new HashMap<String, Map<String, Map<String, String>>>();
+    List<String> defaultKeys = new ArrayList<String>();
+    List<String[]> defaultKeysTokens = new ArrayList<String[]>();
+    List<String> databaseKeys = new ArrayList<String>();
+    List<String[]> databaseKeysTokens = new ArrayList<String[]>();
+
+    // Explicit settings are applied as they are met, defaults and database fixups are deferred so that they are
+    // applied after, and in the same order as, the explicit settings
+    Iterator<String> keys = configuration.getKeys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      if (key.startsWith(CONFIG_WHIRR_CM_CONFIG_PREFIX)) {
+        String[] keyTokens = getKeyTokens(clusterConfiguration, key, CONFIG_WHIRR_CM_CONFIG_PREFIX);
+        clusterConfiguration.get(keyTokens[0]).get(keyTokens[1]).put(keyTokens[2], configuration.getString(key));
+        if (key.endsWith(CONFIG_CM_DB_SUFFIX_TYPE)) {
+          databaseKeys.add(key);
+          databaseKeysTokens.add(keyTokens);
+        }
+      } else if (key.startsWith(CONFIG_WHIRR_INTERNAL_CM_CONFIG_DEFAULT_PREFIX)) {
+        defaultKeys.add(key);
+        defaultKeysTokens.add(getKeyTokens(clusterConfiguration, key, CONFIG_WHIRR_INTERNAL_CM_CONFIG_DEFAULT_PREFIX));
+      }
+    }
+
+    String mountFirst = mounts.isEmpty() ? configuration.getString(CONFIG_WHIRR_INTERNAL_DATA_DIRS_DEFAULT) : mounts
+        .first();
+    for (int i = 0; i < defaultKeys.size(); i++) {
+      String[] keyTokens = defaultKeysTokens.get(i);
+      if (configuration.getString(CONFIG_WHIRR_CM_CONFIG_PREFIX + keyTokens[1].toLowerCase() + "." + keyTokens[2])
+          == null) {
+        String value = configuration.getString(defaultKeys.get(i));
+        if ((keyTokens[2].endsWith(CONFIG_CM_DIR_SUFFIX_LIST) || keyTokens[2].endsWith(CONFIG_CM_DIR_SUFFIX_PLURAL))
+            && !mounts.isEmpty()) {
+          StringBuilder values = new StringBuilder();
+          for (String mount : mounts) {
+            if (values.length() > 0) {
+              values.append(',');
+            }
+            values.append(mount).append(value);
+          }
+          clusterConfiguration.get(keyTokens[0]).get(keyTokens[1]).put(keyTokens[2], values.toString());
+        } else {
+          clusterConfiguration.get(keyTokens[0]).get(keyTokens[1]).put(keyTokens[2], mountFirst + value);
+        }
+      }
+    }
+
+    if (!databaseKeys.isEmpty()) {
+      String databaseType = configuration.getString(CONFIG_WHIRR_DB_TYPE);
+      String databasePort = configuration.getString(CONFIG_WHIRR_INTERNAL_PORTS_DB_PREFIX + databaseType);
+      for (int i = 0; i < databaseKeys.size(); i++) {
+        String key = databaseKeys.get(i);
+        String[] keyTokens = databaseKeysTokens.get(i);
+        Map<String, String> settings = clusterConfiguration.get(keyTokens[0]).get(keyTokens[1]);
+        String value = configuration.getString(key);
+        if (value != null && value.length() == 0) {
+          settings.put(keyTokens[2], databaseType);
+          String port = configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_PORT));
+          String host = configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST));
+          if (port != null && port.length() == 0) {
+            settings.put(keyTokens[2].replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_PORT), databasePort);
+          } else if (host != null && !host.contains(":")) {
+            settings.put(keyTokens[2].replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST), host + ":"
+                + databasePort);
+          }
+        }
+      }
+    }
+
+    String versionBase = CmServerClusterInstance.CM_API_BASE_VERSION;
+    if (clusterConfiguration.get(versionBase) == null) {
+      clusterConfiguration.put(versionBase, new HashMap<String, Map<String, String>>());
+    }
+    if (clusterConfiguration.get(versionBase).get(CmServerServiceType.CLUSTER.getId()) == null) {
+      clusterConfiguration.get(versionBase).put(CmServerServiceType.CLUSTER.getId(), new HashMap<String, String>());
+    }
+    Map<String, String> settingsCluster = clusterConfiguration.get(versionBase)
+        .get(CmServerServiceType.CLUSTER.getId());
+    if (settingsCluster.get(CONFIG_CM_LICENSE_PROVIDED) == null) {
+      settingsCluster.put(CONFIG_CM_LICENSE_PROVIDED,
+          Boolean.toString(Utils.urlForURI(configuration.getString(CONFIG_WHIRR_CM_LICENSE_URI)) != null));
+    }
+    if (settingsCluster.get(CONFIG_CM_LICENSE_PROVIDED).equals(Boolean.TRUE.toString())) {
+      if (clusterConfiguration.get(versionBase).get(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId()) == null) {
+        clusterConfiguration.get(versionBase).put(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId(),
+            new HashMap<String, String>());
+      }
+      clusterConfiguration.get(versionBase).get(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId())
+          .put(CONFIG_CM_TASKTRACKER_INSTRUMENTATION, "org.apache.hadoop.mapred.TaskTrackerCmonInst");
+    }
+
+    for (Map.Entry<String, Map<String, Map<String, String>>> version : clusterConfiguration.entrySet()) {
+      for (Map.Entry<String, Map<String, String>> role : version.getValue().entrySet()) {
+        role.setValue(Collections.unmodifiableMap(role.getValue()));
+      }
+      version.setValue(Collections.unmodifiableMap(version.getValue()));
+    }
+    this.configuration = Collections.unmodifiableMap(clusterConfiguration);
+
+  }
+
+  public Map<String, Map<String, Map<String, String>>> getConfiguration() {
+    return configuration;
+  }
+
+  public Map<String, Map<String, String>> getConfiguration(String version) {
+    return configuration.get(version);
+  }
+
+  public String getSetting(String version, String type, String setting) {
+    Map<String, Map<String, String>> settingsVersion = configuration.get(version);
+    Map<String, String> settings = settingsVersion == null ? null : settingsVersion.get(type);
+    return settings == null ? null : settings.get(setting);
+  }
+
+  public String getSettingBySuffix(String type, String typeParent, String settingSuffix) throws IOException {
+    String setting = getSettingBySuffix(type, settingSuffix);
+    if (setting == null && typeParent != null) {
+      setting = getSettingBySuffix(typeParent, settingSuffix);
+    }
+    if (setting == null) {
+      throw new IOException("Could not find setting [" + settingSuffix + "] for type [" + type + "] with parent type ["
+          + typeParent + "] from configuration");
+    }
+    return setting;
+  }
+
+  private String getSettingBySuffix(String type, String settingSuffix) {
+    String key = type + '\n' + settingSuffix;
+    String setting = settingsBySuffix.get(key);
+    if (setting == null) {
+      setting = SETTING_NONE;
+      Map<String, String> settings = configuration.get(CmServerClusterInstance.CM_API_BASE_VERSION).get(type);
+      if (settings != null) {
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+          if (entry.getKey().endsWith(settingSuffix) && entry.getValue() != null) {
+            setting = entry.getValue();
+          }
+        }
+      }
+      settingsBySuffix.putIfAbsent(key, setting);
+    }
+    return setting == SETTING_NONE ? null : setting;
+  }
+
+  private static String[] getKeyTokens(Map<String, Map<String, Map<String, String>>> clusterConfiguration, String key,
+      String prefix) throws IOException {
+    String[] keyTokens = StringUtils.split(key.substring(prefix.length()), '.');
+    if (keyTokens.length < 2 || keyTokens.length > 3 || key.indexOf("..", prefix.length()) >= 0
+        || key.charAt(prefix.length()) == '.') {
+      throw new IOException("Invalid key [" + key + "], expected to be of format [" + prefix + "<role>.<setting>] or ["
+          + prefix + "<version>.<role>.<setting>]");
+    }
+    String keyTokensValidated[] = new String[3];
+    if (keyTokens.length == 2) {
+      keyTokensValidated[0] = CmServerClusterInstance.CM_API_BASE_VERSION;
+      keyTokensValidated[1] = keyTokens[0].toUpperCase();
+      keyTokensValidated[2] = keyTokens[1];
+    } else {
+      if (!StringUtils.isNumeric(keyTokens[0])) {
+        throw new IOException("Invalid key [" + key + "], expected to be of format [" + prefix
+            + "<version>.<role>.<setting>]");
+      }
+      keyTokensValidated[0] = keyTokens[0];
+      keyTokensValidated[1] = keyTokens[1].toUpperCase();
+      keyTokensValidated[2] = keyTokens[2];
+    }
+    Map<String, Map<String, String>> settingsVersion = clusterConfiguration.get(keyTokensValidated[0]);
+    if (settingsVersion == null) {
+      clusterConfiguration.put(keyTokensValidated[0], settingsVersion = new HashMap<String, Map<String, String>>());
+    }
+    if (settingsVersion.get(keyTokensValidated[1]) == null) {
+      settingsVersion.put(keyTokensValidated[1], new HashMap<String, String>());
+    }
+    return keyTokensValidated;
+  }
+
+}
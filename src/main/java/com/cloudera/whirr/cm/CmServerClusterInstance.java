@@ -21,31 +21,31 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.configuration.CompositeConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
-import org.apache.commons.lang.StringUtils;
+import org.apache.commons.configuration.event.ConfigurationEvent;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.apache.commons.configuration.event.EventSource;
 import org.apache.whirr.Cluster;
 import org.apache.whirr.Cluster.Instance;
 import org.apache.whirr.ClusterSpec;
 import org.apache.whirr.service.ClusterActionEvent;
-import org.apache.whirr.service.hadoop.VolumeManager;
 
 import com.cloudera.whirr.cm.handler.CmAgentHandler;
 import com.cloudera.whirr.cm.handler.CmBalancerHandler;
+import com.cloudera.whirr.cm.handler.CmBalancerHandler.BalancerService;
 import com.cloudera.whirr.cm.handler.CmNodeHandler;
 import com.cloudera.whirr.cm.handler.CmServerHandler;
-import com.cloudera.whirr.cm.handler.cdh.BaseHandlerCmCdh;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhHueServerHandler;
 import com.cloudera.whirr.cm.server.CmServerCluster;
 import com.cloudera.whirr.cm.server.CmServerException;
@@ -55,13 +55,18 @@ import com.cloudera.whirr.cm.server.CmServerServiceType;
 import com.cloudera.whirr.cm.server.impl.CmServerFactory;
 import com.cloudera.whirr.cm.server.impl.CmServerImpl;
 import com.cloudera.whirr.cm.server.impl.CmServerLog;
-import com.google.common.base.Function;
-import com.google.common.base.Joiner;
+import com.cloudera.whirr.cm.server.impl.CmServerLogHistory;
+import com.cloudera.whirr.cm.server.impl.CmServerLogJson;
+import com.cloudera.whirr.cm.server.impl.CmServerLogJsonSink;
+import com.cloudera.whirr.cm.server.impl.CmServerLogProgress;
+import com.cloudera.whirr.cm.server.impl.CmServerLogTee;
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 public class CmServerClusterInstance implements CmConstants {
 
@@ -69,19 +74,32 @@ public class CmServerClusterInstance implements CmConstants {
 
   private static CmServerFactory factory;
   private static boolean isStandaloneCommand = true;
-  private static Future<?> logExecutorFuture;
-  private static ExecutorService logExecutor = Executors.newSingleThreadScheduledExecutor();
-  private static Map<ClusterActionEvent, Set<Integer>> ports = new HashMap<ClusterActionEvent, Set<Integer>>();
+  // One JSON event sink per target, shared by the per tag loggers writing to it, closed on clear
+  private static Map<String, CmServerLogJsonSink> sinksJson = new HashMap<String, CmServerLogJsonSink>();
+
+  // Defaults are parsed once, the layered configuration is memoized against the identity of the last spec
+  private static PropertiesConfiguration configurationDefaults;
+  private static ClusterSpec configurationClusterSpec;
+  private static Configuration configurationClusterSpecConfiguration;
+  private static Configuration configurationLayered;
 
   private static int LOG_POLL_PERIOD_MS = 7500;
   private static int LOG_POLL_PERIOD_BACKOFF_NUMBER = 3;
   private static int LOG_POLL_PERIOD_BACKOFF_INCRAMENT = 2;
 
+  private static CmServerLogProgress logProgress = new CmServerLogProgress(LOG_POLL_PERIOD_MS,
+      LOG_POLL_PERIOD_BACKOFF_NUMBER, LOG_POLL_PERIOD_BACKOFF_INCRAMENT);
+
+  // Bounds for the cluster cache, so that a long lived driver does not retain every cluster it has seen
+  private static int CACHE_SIZE_MAX = 64;
+  private static int CACHE_IDLE_MINUTES = 360;
+
   private CmServerClusterInstance() {
   }
 
-  private static final LoadingCache<Key, CmServerCluster> clusterCache = CacheBuilder.newBuilder().build(
-      new CacheLoader<Key, CmServerCluster>() {
+  private static final LoadingCache<Key, CmServerCluster> clusterCache = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE_MAX).expireAfterAccess(CACHE_IDLE_MINUTES, TimeUnit.MINUTES).recordStats()
+      .build(new CacheLoader<Key, CmServerCluster>() {
 
         @Override
         public CmServerCluster load(Key arg0) {
@@ -89,23 +107,68 @@ public class CmServerClusterInstance implements CmConstants {
         }
       });
 
+  // Ports are held from beforeConfigure to afterConfigure of an event and must not be evicted in between, entries are
+  // instead released with the event once it is no longer referenced, should afterConfigure never run
+  private static final Cache<ClusterActionEvent, Set<Integer>> ports = CacheBuilder.newBuilder().weakKeys()
+      .recordStats().build();
+
+  private static final Cache<ConfigurationKey, CmServerClusterConfiguration> clusterConfigurationCache = CacheBuilder
+      .newBuilder().maximumSize(32).build();
+
+  private static final Cache<MountsKey, CmServerClusterMounts> clusterMountsCache = CacheBuilder.newBuilder()
+      .maximumSize(32).build();
+
+  private static final ConfigurationListener clusterConfigurationListener = new ConfigurationListener() {
+
+    @Override
+    public void configurationChanged(ConfigurationEvent event) {
+      if (!event.isBeforeUpdate()) {
+        clusterConfigurationCache.invalidateAll();
+        clusterMountsCache.invalidateAll();
+      }
+    }
+  };
+
   public static synchronized void clear() {
     clusterCache.invalidateAll();
-    ports.clear();
+    clusterConfigurationCache.invalidateAll();
+    clusterMountsCache.invalidateAll();
+    ports.invalidateAll();
+    for (CmServerLogJsonSink sinkJson : sinksJson.values()) {
+      sinkJson.close();
+    }
+    sinksJson.clear();
+    configurationClusterSpec = null;
+    configurationClusterSpecConfiguration = null;
+    configurationLayered = null;
   }
 
   public synchronized static Configuration getConfiguration(ClusterSpec clusterSpec) throws IOException {
-    try {
+    Configuration clusterSpecConfiguration = clusterSpec == null ? null : clusterSpec.getConfiguration();
+    if (configurationLayered == null || clusterSpec != configurationClusterSpec
+        || clusterSpecConfiguration != configurationClusterSpecConfiguration) {
       CompositeConfiguration configuration = new CompositeConfiguration();
-      if (clusterSpec != null) {
-        configuration.addConfiguration(clusterSpec.getConfiguration());
+      if (clusterSpecConfiguration != null) {
+        configuration.addConfiguration(clusterSpecConfiguration);
+      }
+      configuration.addConfiguration(getConfigurationDefaults());
+      configurationClusterSpec = clusterSpec;
+      configurationClusterSpecConfiguration = clusterSpecConfiguration;
+      configurationLayered = configuration;
+    }
+    return configurationLayered;
+  }
+
+  private static PropertiesConfiguration getConfigurationDefaults() throws IOException {
+    if (configurationDefaults == null) {
+      try {
+        configurationDefaults = new PropertiesConfiguration(CmServerClusterInstance.class.getClassLoader().getResource(
+            CONFIG_WHIRR_DEFAULT_FILE));
+      } catch (ConfigurationException e) {
+        throw new IOException("Error loading " + CONFIG_WHIRR_DEFAULT_FILE, e);
       }
-      configuration.addConfiguration(new PropertiesConfiguration(CmServerClusterInstance.class.getClassLoader()
-          .getResource(CONFIG_WHIRR_DEFAULT_FILE)));
-      return configuration;
-    } catch (ConfigurationException e) {
-      throw new IOException("Error loading " + CONFIG_WHIRR_DEFAULT_FILE, e);
     }
+    return configurationDefaults;
   }
 
   public static synchronized boolean isStandaloneCommand() {
@@ -140,16 +203,16 @@ public class CmServerClusterInstance implements CmConstants {
 
   public static synchronized Set<Integer> portsPush(ClusterActionEvent event, Set<String> ports) {
     Set<Integer> portsNew = new HashSet<Integer>();
-    if (CmServerClusterInstance.ports.get(event) == null) {
-      CmServerClusterInstance.ports.put(event, new HashSet<Integer>());
+    Set<Integer> portsEvent = CmServerClusterInstance.ports.getIfPresent(event);
+    if (portsEvent == null) {
+      CmServerClusterInstance.ports.put(event, portsEvent = new HashSet<Integer>());
     }
     for (String port : ports) {
       if (ports != null && !ports.equals("")) {
         try {
           Integer portInteger = Integer.parseInt(port);
-          if (!CmServerClusterInstance.ports.get(event).contains(portInteger)) {
+          if (portsEvent.add(portInteger)) {
             portsNew.add(portInteger);
-            CmServerClusterInstance.ports.get(event).add(portInteger);
           }
         } catch (NumberFormatException e) {
           // ignore
@@ -160,7 +223,29 @@ public class CmServerClusterInstance implements CmConstants {
   }
 
   public static synchronized Set<Integer> portsPop(ClusterActionEvent event) {
-    return ports.remove(event);
+    Set<Integer> portsEvent = ports.getIfPresent(event);
+    ports.invalidate(event);
+    return portsEvent;
+  }
+
+  public static CacheStats getClusterCacheStats() {
+    return clusterCache.stats();
+  }
+
+  public static CacheStats getPortsCacheStats() {
+    return ports.stats();
+  }
+
+  public static void logCacheStats(CmServerLog logger, String operation) {
+    logCacheStats(logger, operation, "cache.cluster", clusterCache.size(), clusterCache.stats());
+    logCacheStats(logger, operation, "cache.ports", ports.size(), ports.stats());
+  }
+
+  private static void logCacheStats(CmServerLog logger, String operation, String cache, long size, CacheStats stats) {
+    logger.logOperationMetric(operation, cache + ".size", size);
+    logger.logOperationMetric(operation, cache + ".hits", stats.hitCount());
+    logger.logOperationMetric(operation, cache + ".misses", stats.missCount());
+    logger.logOperationMetric(operation, cache + ".evictions", stats.evictionCount());
   }
 
   public static synchronized CmServerFactory getFactory() {
@@ -171,6 +256,28 @@ public class CmServerClusterInstance implements CmConstants {
     return CmServerClusterInstance.factory = factory;
   }
 
+  public static CmServerLogHistory getHistory(Configuration configuration) {
+    return CmServerLogHistory.getHistory(configuration.getString(CONFIG_WHIRR_HISTORY_FILE, ""));
+  }
+
+  public static synchronized CmServerLog getLogger(Configuration configuration, String tag) {
+    CmServerLog logger = configuration.getBoolean(CONFIG_WHIRR_LOG_ASYNC, false) ? new CmServerLog.CmServerLogSysOutAsync(
+        tag, false) : new CmServerLog.CmServerLogSysOut(tag, false);
+    String target = configuration.getString(CONFIG_WHIRR_LOG_JSON, "");
+    if (!target.equals("")) {
+      if (sinksJson.get(target) == null) {
+        try {
+          sinksJson.put(target, CmServerLogJsonSink.getSink(target));
+        } catch (IOException e) {
+          logger.logOperation(tag, "Could not open JSON event log [" + target + "], continuing without it");
+          return logger;
+        }
+      }
+      logger = new CmServerLogTee(logger, new CmServerLogJson(tag, false, sinksJson.get(target)));
+    }
+    return logger;
+  }
+
   public static synchronized CmServerCluster getCluster(ClusterSpec spec) {
     return clusterCache.getUnchecked(new Key(spec));
   }
@@ -209,7 +316,7 @@ public class CmServerClusterInstance implements CmConstants {
           cluster.addNode(new CmServerServiceBuilder().ip(instance.getPublicIp()).ipInternal(instance.getPrivateIp())
               .build());
         } else {
-          CmServerServiceType type = BaseHandlerCmCdh.getRolesToType().get(role);
+          CmServerServiceType type = CmRoleRegistry.getType(role);
           if (type != null && (roles == null || roles.isEmpty() || roles.contains(role))) {
             cluster.addService(new CmServerServiceBuilder()
                 .type(type)
@@ -245,174 +352,51 @@ public class CmServerClusterInstance implements CmConstants {
 
   public static String getClusterConfiguration(Configuration configuration, SortedSet<String> mounts, String type,
       String typeParent, String settingSuffix) throws IOException {
-    String databaseSettingValue = null;
-    Map<String, Map<String, String>> clusterConfiguration = getClusterConfiguration(configuration, mounts).get(
-        CM_API_BASE_VERSION);
-    if (clusterConfiguration.get(type) != null) {
-      for (String setting : clusterConfiguration.get(type).keySet()) {
-        if (setting.endsWith(settingSuffix)) {
-          databaseSettingValue = clusterConfiguration.get(type).get(setting);
-        }
-      }
-    }
-    if (databaseSettingValue == null && typeParent != null) {
-      if (clusterConfiguration.get(typeParent) != null) {
-        for (String setting : clusterConfiguration.get(typeParent).keySet()) {
-          if (setting.endsWith(settingSuffix)) {
-            databaseSettingValue = clusterConfiguration.get(typeParent).get(setting);
-          }
-        }
-      }
-    }
-    if (databaseSettingValue == null) {
-      throw new IOException("Could not find setting [" + settingSuffix + "] for type [" + type + "] with parent type ["
-          + typeParent + "] from configuration");
-    }
-    return databaseSettingValue;
-  }
-
-  private static String[] getClusterConfigurationKeyTokens(
-      Map<String, Map<String, Map<String, String>>> clusterConfiguration, String key, String prefix) throws IOException {
-    String[] keyTokens = key.substring(prefix.length(), key.length()).split("\\.");
-    if (keyTokens == null || keyTokens.length < 2 || keyTokens.length > 3) {
-      throw new IOException("Invalid key [" + key + "], expected to be of format [" + prefix + "<role>.<setting>] or ["
-          + prefix + "<version>.<role>.<setting>]");
-    }
-    String keyTokensValidated[] = new String[3];
-    if (keyTokens.length == 2) {
-      keyTokensValidated[0] = CM_API_BASE_VERSION;
-      keyTokensValidated[1] = keyTokens[0].toUpperCase();
-      keyTokensValidated[2] = keyTokens[1];
-    } else {
-      if (!StringUtils.isNumeric(keyTokens[0])) {
-        throw new IOException("Invalid key [" + key + "], expected to be of format [" + prefix
-            + "<version>.<role>.<setting>]");
-      }
-      keyTokensValidated[0] = keyTokens[0];
-      keyTokensValidated[1] = keyTokens[1].toUpperCase();
-      keyTokensValidated[2] = keyTokens[2];
-    }
-    if (clusterConfiguration.get(keyTokensValidated[0]) == null) {
-      clusterConfiguration.put(keyTokensValidated[0], new HashMap<String, Map<String, String>>());
-    }
-    if (clusterConfiguration.get(keyTokensValidated[0]).get(keyTokensValidated[1]) == null) {
-      clusterConfiguration.get(keyTokensValidated[0]).put(keyTokensValidated[1], new HashMap<String, String>());
-    }
-    return keyTokensValidated;
+    return getClusterConfigurationCompiled(configuration, mounts).getSettingBySuffix(type, typeParent, settingSuffix);
   }
 
-  @SuppressWarnings("unchecked")
   public static Map<String, Map<String, Map<String, String>>> getClusterConfiguration(
       final Configuration configuration, SortedSet<String> mounts) throws IOException {
+    return getClusterConfigurationCompiled(configuration, mounts).getConfiguration();
+  }
 
-    Map<String, Map<String, Map<String, String>>> clusterConfiguration = new HashMap<String, Map<String, Map<String, String>>>();
-
-    Iterator<String> keys = configuration.getKeys();
-    while (keys.hasNext()) {
-      String key = keys.next();
-      if (key.startsWith(CONFIG_WHIRR_CM_CONFIG_PREFIX)) {
-        String[] keyTokens = getClusterConfigurationKeyTokens(clusterConfiguration, key, CONFIG_WHIRR_CM_CONFIG_PREFIX);
-        clusterConfiguration.get(keyTokens[0]).get(keyTokens[1]).put(keyTokens[2], configuration.getString(key));
-      }
-    }
-
-    keys = configuration.getKeys();
-    while (keys.hasNext()) {
-      final String key = keys.next();
-      if (key.startsWith(CONFIG_WHIRR_INTERNAL_CM_CONFIG_DEFAULT_PREFIX)) {
-        String[] keyTokens = getClusterConfigurationKeyTokens(clusterConfiguration, key,
-            CONFIG_WHIRR_INTERNAL_CM_CONFIG_DEFAULT_PREFIX);
-        if (configuration.getString(CONFIG_WHIRR_CM_CONFIG_PREFIX + keyTokens[1].toLowerCase() + "." + keyTokens[2]) == null) {
-          if ((keyTokens[2].endsWith(CONFIG_CM_DIR_SUFFIX_LIST) || keyTokens[2].endsWith(CONFIG_CM_DIR_SUFFIX_PLURAL))
-              && !mounts.isEmpty()) {
-            clusterConfiguration
-                .get(keyTokens[0])
-                .get(keyTokens[1])
-                .put(keyTokens[2],
-                    Joiner.on(',').join(Lists.transform(Lists.newArrayList(mounts), new Function<String, String>() {
-                      @Override
-                      public String apply(String input) {
-                        return input + configuration.getString(key);
-                      }
-                    })));
-          } else {
-            clusterConfiguration
-                .get(keyTokens[0])
-                .get(keyTokens[1])
-                .put(
-                    keyTokens[2],
-                    (mounts.isEmpty() ? configuration.getString(CONFIG_WHIRR_INTERNAL_DATA_DIRS_DEFAULT) : mounts
-                        .iterator().next()) + configuration.getString(key));
-          }
-        }
-      }
-    }
+  public static CmServerClusterConfiguration getClusterConfigurationCompiled(ClusterSpec clusterSpec,
+      SortedSet<String> mounts) throws IOException {
+    return getClusterConfigurationCompiled(getConfiguration(clusterSpec), mounts);
+  }
 
-    keys = configuration.getKeys();
-    while (keys.hasNext()) {
-      final String key = keys.next();
-      if (key.startsWith(CONFIG_WHIRR_CM_CONFIG_PREFIX) && key.endsWith(CONFIG_CM_DB_SUFFIX_TYPE)) {
-        String[] keyTokens = getClusterConfigurationKeyTokens(clusterConfiguration, key, CONFIG_WHIRR_CM_CONFIG_PREFIX);
-        if (configuration.getString(key) != null && configuration.getString(key).length() == 0) {
-          clusterConfiguration.get(keyTokens[0]).get(keyTokens[1])
-              .put(keyTokens[2], configuration.getString(CONFIG_WHIRR_DB_TYPE));
-          if (configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_PORT)) != null
-              && configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_PORT)).length() == 0) {
-            clusterConfiguration
-                .get(keyTokens[0])
-                .get(keyTokens[1])
-                .put(
-                    keyTokens[2].replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_PORT),
-                    configuration.getString(CONFIG_WHIRR_INTERNAL_PORTS_DB_PREFIX
-                        + configuration.getString(CONFIG_WHIRR_DB_TYPE)));
-          } else if (configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST)) != null
-              && !configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST))
-                  .contains(":")) {
-            clusterConfiguration
-                .get(keyTokens[0])
-                .get(keyTokens[1])
-                .put(
-                    keyTokens[2].replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST),
-                    configuration.getString(key.replace(CONFIG_CM_DB_SUFFIX_TYPE, CONFIG_CM_DB_SUFFIX_HOST))
-                        + ":"
-                        + configuration.getString(CONFIG_WHIRR_INTERNAL_PORTS_DB_PREFIX
-                            + configuration.getString(CONFIG_WHIRR_DB_TYPE)));
-          }
-        }
+  public static CmServerClusterConfiguration getClusterConfigurationCompiled(final Configuration configuration,
+      final SortedSet<String> mounts) throws IOException {
+    try {
+      return clusterConfigurationCache.get(new ConfigurationKey(configuration, mounts),
+          new Callable<CmServerClusterConfiguration>() {
+            @Override
+            public CmServerClusterConfiguration call() throws IOException {
+              listenConfiguration(configuration);
+              return new CmServerClusterConfiguration(configuration, mounts);
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw new IOException("Unexpected error compiling cluster configuration", e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new IOException("Unexpected error compiling cluster configuration", e.getCause());
     }
+  }
 
-    if (clusterConfiguration.get(CM_API_BASE_VERSION) == null) {
-      clusterConfiguration.put(CM_API_BASE_VERSION, new HashMap<String, Map<String, String>>());
+  // Compiled configurations and mount plans are invalidated on any mutation of the configurations they were built from
+  private static void listenConfiguration(Configuration configuration) {
+    if (configuration instanceof EventSource
+        && !((EventSource) configuration).getConfigurationListeners().contains(clusterConfigurationListener)) {
+      ((EventSource) configuration).addConfigurationListener(clusterConfigurationListener);
     }
-    if (clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.CLUSTER.getId()) == null) {
-      clusterConfiguration.get(CM_API_BASE_VERSION).put(CmServerServiceType.CLUSTER.getId(),
-          new HashMap<String, String>());
-    }
-
-    if (clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.CLUSTER.getId())
-        .get(CONFIG_CM_LICENSE_PROVIDED) == null) {
-      if (Utils.urlForURI(configuration.getString(CONFIG_WHIRR_CM_LICENSE_URI)) != null) {
-        clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.CLUSTER.getId())
-            .put(CONFIG_CM_LICENSE_PROVIDED, Boolean.TRUE.toString());
-      } else {
-        clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.CLUSTER.getId())
-            .put(CONFIG_CM_LICENSE_PROVIDED, Boolean.FALSE.toString());
+    if (configuration instanceof CompositeConfiguration) {
+      for (int i = 0; i < ((CompositeConfiguration) configuration).getNumberOfConfigurations(); i++) {
+        listenConfiguration(((CompositeConfiguration) configuration).getConfiguration(i));
       }
     }
-
-    if (clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.CLUSTER.getId())
-        .get(CONFIG_CM_LICENSE_PROVIDED).equals(Boolean.TRUE.toString())) {
-      if (clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId()) == null) {
-        clusterConfiguration.get(CM_API_BASE_VERSION).put(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId(),
-            new HashMap<String, String>());
-      }
-      clusterConfiguration.get(CM_API_BASE_VERSION).get(CmServerServiceType.MAPREDUCE_TASK_TRACKER.getId())
-          .put(CONFIG_CM_TASKTRACKER_INSTRUMENTATION, "org.apache.hadoop.mapred.TaskTrackerCmonInst");
-    }
-
-    return clusterConfiguration;
-
   }
 
   public static boolean logCluster(CmServerLog logger, String label, Configuration configuration,
@@ -451,13 +435,18 @@ public class CmServerClusterInstance implements CmConstants {
         balancerInstances.add(instance);
       }
     }
-    if (!balancerInstances.isEmpty()) {
-      logger.logOperationInProgressSync(label, "BALANCER IMPALA");
+    for (BalancerService service : CmBalancerHandler.SERVICES) {
+      boolean serviceLogged = false;
       for (Instance instance : balancerInstances) {
-        logger.logOperationInProgressSync(
-            label,
-            "  impala-shell -i " + instance.getPrivateIp() + ":"
-                + configuration.getString(CmConstants.CONFIG_WHIRR_INTERNAL_PORT_BALANCER_IMPALA));
+        if (CmBalancerHandler.getBackends(configuration, instances, instance.getRoles()).containsKey(service)) {
+          if (!serviceLogged) {
+            logger.logOperationInProgressSync(label, "BALANCER " + service.getName().toUpperCase());
+            serviceLogged = true;
+          }
+          logger.logOperationInProgressSync(label, "  "
+              + (service.getName().equals("impala") ? "impala-shell -i " : "") + instance.getPrivateIp() + ":"
+              + service.getPortBalancer(configuration));
+        }
       }
     }
     logger.logOperationInProgressSync(label, "CONSOLE MANAGER");
@@ -511,27 +500,9 @@ public class CmServerClusterInstance implements CmConstants {
     logger.logOperationInProgressSync(operation, detail);
   }
 
-  public static void logLineItemAsync(final CmServerLog logger, final String operation) {
+  public static void logLineItemAsync(CmServerLog logger, String operation) {
     logger.logOperationStartedAsync(operation);
-    logExecutorFuture = logExecutor.submit(new Runnable() {
-      @Override
-      public void run() {
-        int sleep = LOG_POLL_PERIOD_MS;
-        int sleepBackoffNumber = LOG_POLL_PERIOD_BACKOFF_NUMBER;
-        while (true) {
-          try {
-            logger.logOperationInProgressAsync(operation);
-            if (sleepBackoffNumber-- == 0) {
-              sleep += LOG_POLL_PERIOD_BACKOFF_INCRAMENT;
-              sleepBackoffNumber = LOG_POLL_PERIOD_BACKOFF_NUMBER;
-            }
-            Thread.sleep(sleep);
-          } catch (InterruptedException e) {
-            return;
-          }
-        }
-      }
-    });
+    logProgress.start(logger, operation);
   }
 
   public static void logLineItemDetail(CmServerLog logger, String operation, String detail) {
@@ -543,9 +514,7 @@ public class CmServerClusterInstance implements CmConstants {
   }
 
   public static void logLineItemFooterAsync(CmServerLog logger, String operation) {
-    if (logExecutorFuture != null) {
-      logExecutorFuture.cancel(true);
-    }
+    logProgress.stop(logger, operation);
     logger.logOperationFinishedAsync(operation);
   }
 
@@ -556,9 +525,7 @@ public class CmServerClusterInstance implements CmConstants {
   }
 
   public static void logException(CmServerLog logger, String operation, String message, Throwable throwable) {
-    if (logExecutorFuture != null) {
-      logExecutorFuture.cancel(true);
-    }
+    logProgress.stop(logger, operation);
     logger.logOperationInProgressSync(operation, "failed");
     logger.logOperationStackTrace(operation, throwable);
     logger.logSpacer();
@@ -605,23 +572,81 @@ public class CmServerClusterInstance implements CmConstants {
     }
   }
 
+  private static class MountsKey {
+    private final ClusterSpec specification;
+    private final Set<Instance> instances;
+
+    public MountsKey(ClusterSpec specification, Set<Instance> instances) {
+      this.specification = specification;
+      this.instances = instances == null ? Collections.<Instance> emptySet() : new HashSet<Instance>(instances);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that instanceof MountsKey) {
+        return specification == ((MountsKey) that).specification && instances.equals(((MountsKey) that).instances);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(specification) + instances.hashCode();
+    }
+  }
+
+  private static class ConfigurationKey {
+    private final Configuration configuration;
+    private final SortedSet<String> mounts;
+
+    public ConfigurationKey(Configuration configuration, SortedSet<String> mounts) {
+      this.configuration = configuration;
+      this.mounts = mounts == null ? new TreeSet<String>() : new TreeSet<String>(mounts);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that instanceof ConfigurationKey) {
+        return configuration == ((ConfigurationKey) that).configuration
+            && mounts.equals(((ConfigurationKey) that).mounts);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(configuration) + mounts.hashCode();
+    }
+  }
+
+  public static CmServerClusterMounts getMountPlan(ClusterSpec specification, Cluster cluster) throws IOException {
+    return getMountPlan(specification, cluster == null ? null : cluster.getInstances());
+  }
+
+  public static CmServerClusterMounts getMountPlan(final ClusterSpec specification, final Set<Instance> instances)
+      throws IOException {
+    final Configuration configuration = getConfiguration(specification);
+    try {
+      return clusterMountsCache.get(new MountsKey(specification, instances), new Callable<CmServerClusterMounts>() {
+        @Override
+        public CmServerClusterMounts call() {
+          listenConfiguration(configuration);
+          return new CmServerClusterMounts(specification, configuration, instances);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new IOException("Unexpected error resolving cluster mounts", e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new IOException("Unexpected error resolving cluster mounts", e.getCause());
+    }
+  }
+
   public static SortedSet<String> getMounts(ClusterSpec specification, Cluster cluster) throws IOException {
     return getMounts(specification, cluster == null ? null : cluster.getInstances());
   }
 
-  @SuppressWarnings("unchecked")
   public static SortedSet<String> getMounts(ClusterSpec specification, Set<Instance> instances) throws IOException {
-    Configuration configuration = getConfiguration(specification);
-    SortedSet<String> mounts = new TreeSet<String>();
-    Set<String> deviceMappings = CmServerClusterInstance.getDeviceMappings(specification, instances).keySet();
-    if (!configuration.getList(CONFIG_WHIRR_DATA_DIRS_ROOT).isEmpty()) {
-      mounts.addAll(configuration.getList(CONFIG_WHIRR_DATA_DIRS_ROOT));
-    } else if (!deviceMappings.isEmpty()) {
-      mounts.addAll(deviceMappings);
-    } else {
-      mounts.add(configuration.getString(CONFIG_WHIRR_INTERNAL_DATA_DIRS_DEFAULT));
-    }
-    return mounts;
+    return getMountPlan(specification, instances).getMounts();
   }
 
   public static Map<String, String> getDeviceMappings(ClusterSpec specification, Cluster cluster) {
@@ -629,11 +654,11 @@ public class CmServerClusterInstance implements CmConstants {
   }
 
   public static Map<String, String> getDeviceMappings(ClusterSpec specification, Set<Instance> instances) {
-    Map<String, String> deviceMappings = new HashMap<String, String>();
-    if (specification != null && instances != null && !instances.isEmpty()) {
-      deviceMappings.putAll(new VolumeManager().getDeviceMappings(specification, instances.iterator().next()));
+    try {
+      return getMountPlan(specification, instances).getDeviceMappings();
+    } catch (IOException e) {
+      throw new RuntimeException("Could not resolve device mappings", e);
     }
-    return deviceMappings;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.whirr.Cluster.Instance;
+import org.apache.whirr.ClusterSpec;
+import org.apache.whirr.service.hadoop.VolumeManager;
+
+// Immutable mount plan for a cluster, resolved once per distinct instance template (role set) rather than per call
+public class CmServerClusterMounts implements CmConstants {
+
+  private final SortedSet<String> mounts;
+  private final Map<String, String> deviceMappings;
+  private final Map<Set<String>, SortedSet<String>> mountsByRoles;
+  private final Map<Set<String>, Map<String, String>> deviceMappingsByRoles;
+
+  @SuppressWarnings("unchecked")
+  public CmServerClusterMounts(ClusterSpec specification, Configuration configuration, Set<Instance> instances) {
+    List<String> dataDirsRoot = configuration.getList(CONFIG_WHIRR_DATA_DIRS_ROOT);
+    String dataDirsDefault = configuration.getString(CONFIG_WHIRR_INTERNAL_DATA_DIRS_DEFAULT);
+    Map<Set<String>, SortedSet<String>> mountsByRoles = new HashMap<Set<String>, SortedSet<String>>();
+    Map<Set<String>, Map<String, String>> deviceMappingsByRoles = new HashMap<Set<String>, Map<String, String>>();
+    Set<String> rolesFirst = null;
+    if (specification != null && instances != null) {
+      VolumeManager volumeManager = new VolumeManager();
+      for (Instance instance : instances) {
+        if (rolesFirst == null) {
+          rolesFirst = instance.getRoles();
+        }
+        if (!deviceMappingsByRoles.containsKey(instance.getRoles())) {
+          Map<String, String> deviceMappings = Collections.unmodifiableMap(new LinkedHashMap<String, String>(
+              volumeManager.getDeviceMappings(specification, instance)));
+          deviceMappingsByRoles.put(instance.getRoles(), deviceMappings);
+          mountsByRoles.put(instance.getRoles(), getMounts(dataDirsRoot, dataDirsDefault, deviceMappings.keySet()));
+        }
+      }
+    }
+    this.deviceMappings = rolesFirst == null ? Collections.<String, String> emptyMap() : deviceMappingsByRoles
+        .get(rolesFirst);
+    this.mounts = rolesFirst == null ? getMounts(dataDirsRoot, dataDirsDefault, Collections.<String> emptySet())
+        : mountsByRoles.get(rolesFirst);
+    this.mountsByRoles = mountsByRoles;
+    this.deviceMappingsByRoles = deviceMappingsByRoles;
+  }
+
+  private static SortedSet<String> getMounts(List<String> dataDirsRoot, String dataDirsDefault,
+      Set<String> deviceMappings) {
+    SortedSet<String> mounts = new TreeSet<String>();
+    if (!dataDirsRoot.isEmpty()) {
+      mounts.addAll(dataDirsRoot);
+    } else if (!deviceMappings.isEmpty()) {
+      mounts.addAll(deviceMappings);
+    } else {
+      mounts.add(dataDirsDefault);
+    }
+    return Collections.unmodifiableSortedSet(mounts);
+  }
+
+  public SortedSet<String> getMounts() {
+    return mounts;
+  }
+
+  public SortedSet<String> getMounts(Set<String> roles) {
+    SortedSet<String> mounts = roles == null ? null : mountsByRoles.get(roles);
+    return mounts == null ? this.mounts : mounts;
+  }
+
+  public Map<String, String> getDeviceMappings() {
+    return deviceMappings;
+  }
+
+  public Map<String, String> getDeviceMappings(Set<String> roles) {
+    Map<String, String> deviceMappings = roles == null ? null : deviceMappingsByRoles.get(roles);
+    return deviceMappings == null ? this.deviceMappings : deviceMappings;
+  }
+
+}
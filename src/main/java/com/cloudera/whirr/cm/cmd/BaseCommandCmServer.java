@@ -32,11 +32,11 @@ import org.apache.whirr.ClusterControllerFactory;
 import org.apache.whirr.ClusterSpec;
 import org.apache.whirr.state.ClusterStateStoreFactory;
 
+import com.cloudera.whirr.cm.CmRoleRegistry;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
 import com.cloudera.whirr.cm.handler.CmAgentHandler;
 import com.cloudera.whirr.cm.handler.CmNodeHandler;
 import com.cloudera.whirr.cm.handler.CmServerHandler;
-import com.cloudera.whirr.cm.handler.cdh.BaseHandlerCmCdh;
 import com.cloudera.whirr.cm.server.CmServerBuilder;
 import com.cloudera.whirr.cm.server.CmServerCluster;
 import com.cloudera.whirr.cm.server.CmServerException;
@@ -109,7 +109,8 @@ public abstract class BaseCommandCmServer extends BaseCommand {
         .versionApi(CmServerClusterInstance.getVersionApi(CmServerClusterInstance.getConfiguration(specification)))
         .versionCdh(CmServerClusterInstance.getVersionCdh(CmServerClusterInstance.getConfiguration(specification)))
         .ip(cluster.getServer().getIp()).ipInternal(cluster.getServer().getIpInternal()).cluster(cluster)
-        .path(specification.getClusterDirectory().getAbsolutePath());
+        .path(specification.getClusterDirectory().getAbsolutePath())
+        .history(CmServerClusterInstance.getHistory(CmServerClusterInstance.getConfiguration(specification)));
 
     int returnInt = run(specification, instances, cluster, command);
 
@@ -129,7 +130,7 @@ public abstract class BaseCommandCmServer extends BaseCommand {
 
   public static Set<String> filterRoles(String rolesCsv) {
     Set<String> roles = new HashSet<String>();
-    Map<String, CmServerServiceType> rolesToType = BaseHandlerCmCdh.getRolesToType();
+    Map<String, CmServerServiceType> rolesToType = CmRoleRegistry.getRolesToType();
     for (String role : Splitter.on(",").split(rolesCsv)) {
       if (rolesToType.containsKey(role)) {
         roles.add(role);
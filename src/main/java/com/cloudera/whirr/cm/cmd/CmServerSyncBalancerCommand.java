@@ -0,0 +1,110 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.cmd;
+
+import static org.jclouds.scriptbuilder.domain.Statements.call;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import joptsimple.OptionSet;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.whirr.Cluster.Instance;
+import org.apache.whirr.ClusterController;
+import org.apache.whirr.ClusterControllerFactory;
+import org.apache.whirr.ClusterSpec;
+import org.apache.whirr.state.ClusterStateStoreFactory;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.predicates.NodePredicates;
+import org.jclouds.scriptbuilder.domain.StatementList;
+
+import com.cloudera.whirr.cm.CmServerClusterInstance;
+import com.cloudera.whirr.cm.handler.CmBalancerHandler;
+import com.cloudera.whirr.cm.handler.CmBalancerHandler.BalancerService;
+import com.cloudera.whirr.cm.server.CmServerBuilder;
+import com.cloudera.whirr.cm.server.CmServerCluster;
+import com.cloudera.whirr.cm.server.CmServerException;
+
+public class CmServerSyncBalancerCommand extends BaseCommandCmServer {
+
+  public static final String NAME = "sync-balancer";
+  public static final String DESCRIPTION = "Sync balancer backends with the started roles in a cluster.";
+
+  private ClusterController clusterController;
+
+  public CmServerSyncBalancerCommand() throws IOException {
+    this(new ClusterControllerFactory());
+  }
+
+  public CmServerSyncBalancerCommand(ClusterControllerFactory factory) {
+    this(factory, new ClusterStateStoreFactory());
+  }
+
+  public CmServerSyncBalancerCommand(ClusterControllerFactory factory, ClusterStateStoreFactory stateStoreFactory) {
+    super(NAME, DESCRIPTION, factory, stateStoreFactory);
+  }
+
+  @Override
+  public int run(ClusterSpec specification, ClusterController clusterController, OptionSet optionSet) throws Exception {
+    this.clusterController = clusterController;
+    return super.run(specification, clusterController, optionSet);
+  }
+
+  @Override
+  public int run(ClusterSpec specification, Set<Instance> instances, CmServerCluster cluster,
+      CmServerBuilder serverCommand) throws Exception {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(specification);
+    CmServerCluster clusterOutput = serverCommand.command("services").executeCluster();
+    CmServerClusterInstance.logLineItemFooter(logger, getLabel());
+    CmServerClusterInstance.logLineItem(logger, getLabel());
+    int balancers = 0;
+    int returnInt = 0;
+    for (Instance instance : instances) {
+      if (instance.getRoles().contains(CmBalancerHandler.ROLE)) {
+        balancers++;
+        Map<BalancerService, List<String>> backends = CmBalancerHandler.getBackends(configuration, clusterOutput,
+            instance.getRoles());
+        for (Map.Entry<BalancerService, List<String>> backend : backends.entrySet()) {
+          CmServerClusterInstance.logLineItemDetail(logger, getLabel(), "BALANCER "
+              + backend.getKey().getName().toUpperCase() + "@" + instance.getPrivateIp() + "=" + backend.getValue());
+        }
+        // the balancer regenerates its config and reloads haproxy in place, established connections are not dropped
+        for (Map.Entry<? extends NodeMetadata, ExecResponse> response : clusterController.runScriptOnNodesMatching(
+            specification,
+            NodePredicates.withIds(instance.getId()),
+            new StatementList(call("retry_helpers"), call("package_helpers"), CmBalancerHandler.callConfigure(
+                configuration, backends))).entrySet()) {
+          if (response.getValue().getExitStatus() != 0) {
+            CmServerClusterInstance.logLineItemDetail(logger, getLabel(), "BALANCER SYNC FAILED@"
+                + instance.getPrivateIp() + "=" + response.getValue().getError());
+            returnInt = -1;
+          }
+        }
+      }
+    }
+    if (balancers == 0) {
+      throw new CmServerException("Could not find " + CmBalancerHandler.ROLE + ".");
+    }
+    return returnInt;
+  }
+
+}
@@ -21,18 +21,34 @@ import static org.apache.whirr.RolePredicates.role;
 import static org.jclouds.scriptbuilder.domain.Statements.call;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.regex.Pattern;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.whirr.ClusterSpec;
 import org.apache.whirr.service.ClusterActionEvent;
 import org.apache.whirr.service.ClusterActionHandlerSupport;
 import org.apache.whirr.service.FirewallManager.Rule;
 import org.apache.whirr.service.hadoop.VolumeManager;
+import org.apache.whirr.service.jclouds.StatementBuilder;
+import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.jclouds.scriptbuilder.domain.Statement;
 
 import com.cloudera.whirr.cm.CmConstants;
+import com.cloudera.whirr.cm.CmRoleRegistry;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
+import com.cloudera.whirr.cm.CmServerClusterMounts;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
 
 public abstract class BaseHandler extends ClusterActionHandlerSupport implements CmConstants {
@@ -40,8 +56,121 @@ public abstract class BaseHandler extends ClusterActionHandlerSupport implements
   // jclouds allows '-', CM does not, CM allows '_', jclouds does not, so lets restrict to alphanumeric
   private static final Pattern CM_CLUSTER_NAME_REGEX = Pattern.compile("[A-Za-z0-9]+");
 
+  // Handlers on an instance template share its statement builder, so identical statements are only added once
+  private static final Map<StatementBuilder, Set<String>> STATEMENTS_ADDED = new WeakHashMap<StatementBuilder, Set<String>>();
+
+  private static final Map<String, String> DATABASE_TUNING_ARGS = ImmutableMap.of(CONFIG_WHIRR_DB_BUFFER_MB, "-b",
+      CONFIG_WHIRR_DB_LOG_MB, "-l", CONFIG_WHIRR_DB_CONNECTIONS_MAX, "-c", CONFIG_WHIRR_DB_IO_CAPACITY, "-i");
+
+  private static final Map<CmServerServiceType, String> OS_PROFILE_USERS = ImmutableMap.of(CmServerServiceType.HDFS,
+      "hdfs", CmServerServiceType.MAPREDUCE, "mapred", CmServerServiceType.YARN, "yarn", CmServerServiceType.HBASE,
+      "hbase", CmServerServiceType.IMPALA, "impala");
+
+  private static final Map<String, String> OS_PROFILE_ARGS = ImmutableMap.<String, String> builder()
+      .put(CONFIG_WHIRR_OS_SWAPPINESS, "-s").put(CONFIG_WHIRR_OS_THP, "-t").put(CONFIG_WHIRR_OS_NOFILE, "-f")
+      .put(CONFIG_WHIRR_OS_NPROC, "-p").put(CONFIG_WHIRR_OS_NET_BUFFER, "-b").put(CONFIG_WHIRR_OS_IO_SCHEDULER, "-i")
+      .put(CONFIG_WHIRR_OS_RPS, "-r").build();
+
   public abstract Set<String> getPortsClient(ClusterActionEvent event) throws IOException;
 
+  @Override
+  protected void addStatement(ClusterActionEvent event, Statement statement) {
+    Set<String> statementsAdded;
+    synchronized (STATEMENTS_ADDED) {
+      if ((statementsAdded = STATEMENTS_ADDED.get(event.getStatementBuilder())) == null) {
+        STATEMENTS_ADDED.put(event.getStatementBuilder(), statementsAdded = new HashSet<String>());
+      }
+    }
+    String statementRendered = null;
+    try {
+      statementRendered = statement.render(OsFamily.UNIX);
+    } catch (RuntimeException exception) {
+      // statements that cannot be rendered ahead of time are never coalesced
+    }
+    synchronized (statementsAdded) {
+      if (statementRendered != null && !statementsAdded.add(statementRendered)) {
+        return;
+      }
+    }
+    super.addStatement(event, statement);
+  }
+
+  // The service users whose limits are raised, for the services of the CDH roles on an instance template
+  public static SortedSet<String> getOsProfileUsers(Set<String> roles) {
+    SortedSet<String> users = new TreeSet<String>();
+    for (String role : roles) {
+      CmServerServiceType type = CmRoleRegistry.getType(role);
+      if (type != null && OS_PROFILE_USERS.containsKey(type)) {
+        users.add(OS_PROFILE_USERS.get(type));
+      } else if (type != null && type.getParent() != null && OS_PROFILE_USERS.containsKey(type.getParent())) {
+        users.add(OS_PROFILE_USERS.get(type.getParent()));
+      }
+    }
+    return users;
+  }
+
+  protected static Statement callOsProfile(Configuration configuration, Set<String> roles, Set<String> mounts) {
+    List<String> args = new ArrayList<String>();
+    for (Map.Entry<String, String> setting : OS_PROFILE_ARGS.entrySet()) {
+      if (!configuration.getString(setting.getKey(), "").equals("")) {
+        args.add(setting.getValue());
+        args.add(configuration.getString(setting.getKey()));
+      }
+    }
+    if (!getOsProfileUsers(roles).isEmpty()) {
+      args.add("-u");
+      args.add(Joiner.on(',').join(getOsProfileUsers(roles)));
+    }
+    if (!mounts.isEmpty()) {
+      args.add("-d");
+      args.add(Joiner.on(',').join(mounts));
+    }
+    return call("configure_os_profile", args.toArray(new String[args.size()]));
+  }
+
+  protected static Statement callImageHelpers(ClusterSpec spec) throws IOException {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(spec);
+    return configuration.getBoolean(CONFIG_WHIRR_IMAGE_PREBAKED, false) ? call("image_helpers", "-p", "-m",
+        configuration.getString(CONFIG_WHIRR_IMAGE_MANIFEST)) : call("image_helpers");
+  }
+
+  protected static Statement callArtefactHelpers(ClusterSpec spec) throws IOException {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(spec);
+    List<String> args = new ArrayList<String>(Arrays.asList(new String[] { "-d",
+        configuration.getString(CONFIG_WHIRR_ARTEFACT_DIR) }));
+    if (!configuration.getString(CONFIG_WHIRR_ARTEFACT_CACHE, "").equals("")) {
+      args.add("-c");
+      args.add("'" + configuration.getString(CONFIG_WHIRR_ARTEFACT_CACHE) + "'");
+    }
+    return call("artefact_helpers", args.toArray(new String[args.size()]));
+  }
+
+  protected static Statement callInstallJava(ClusterSpec spec) throws IOException {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(spec);
+    List<String> args = new ArrayList<String>();
+    if (!configuration.getString(CONFIG_WHIRR_JDK_URL, "").equals("")) {
+      args.add("-u");
+      args.add("'" + configuration.getString(CONFIG_WHIRR_JDK_URL) + "'");
+    }
+    if (!configuration.getString(CONFIG_WHIRR_JDK_SHA1, "").equals("")) {
+      args.add("-s");
+      args.add(configuration.getString(CONFIG_WHIRR_JDK_SHA1));
+    }
+    return call("install_cm_java", args.toArray(new String[args.size()]));
+  }
+
+  protected static Statement callInstallDatabase(ClusterSpec spec, String type, String database) throws IOException {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(spec);
+    List<String> args = new ArrayList<String>(Arrays.asList(new String[] { "-t", type, "-d", database }));
+    for (Map.Entry<String, String> tuning : DATABASE_TUNING_ARGS.entrySet()) {
+      if (!configuration.getString(tuning.getKey(), "").equals("")) {
+        args.add(tuning.getValue());
+        args.add(configuration.getString(tuning.getKey()));
+      }
+    }
+    return call("install_database", args.toArray(new String[args.size()]));
+  }
+
   @Override
   protected void beforeBootstrap(ClusterActionEvent event) throws IOException, InterruptedException {
     super.beforeBootstrap(event);
@@ -60,14 +189,23 @@ public abstract class BaseHandler extends ClusterActionHandlerSupport implements
   protected void beforeConfigure(ClusterActionEvent event) throws IOException, InterruptedException {
     super.beforeConfigure(event);
     addStatement(event, call("retry_helpers"));
-    if (CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getList(CONFIG_WHIRR_DATA_DIRS_ROOT).isEmpty()) {
+    addStatement(event, call("package_helpers"));
+    addStatement(event, callImageHelpers(event.getClusterSpec()));
+    addStatement(event, callArtefactHelpers(event.getClusterSpec()));
+    Configuration configuration = CmServerClusterInstance.getConfiguration(event.getClusterSpec());
+    CmServerClusterMounts mountPlan = CmServerClusterInstance.getMountPlan(event.getClusterSpec(), event.getCluster());
+    if (configuration.getList(CONFIG_WHIRR_DATA_DIRS_ROOT).isEmpty()) {
       addStatement(
           event,
-          call(
-              "prepare_all_disks",
-              "'"
-                  + VolumeManager.asString(CmServerClusterInstance.getDeviceMappings(event.getClusterSpec(),
-                      event.getCluster())) + "'"));
+          call("prepare_cm_disks", "-f", configuration.getString(CONFIG_WHIRR_DATA_DIRS_FS), "-o",
+              configuration.getString(CONFIG_WHIRR_DATA_DIRS_OPTIONS), "-r",
+              configuration.getString(CONFIG_WHIRR_DATA_DIRS_RESERVED), "-m",
+              Joiner.on(',').join(mountPlan.getMounts(event.getInstanceTemplate().getRoles())), "'"
+                  + VolumeManager.asString(mountPlan.getDeviceMappings(event.getInstanceTemplate().getRoles())) + "'"));
+    }
+    if (configuration.getBoolean(CONFIG_WHIRR_OS_PROFILE, true)) {
+      addStatement(event, callOsProfile(configuration, event.getInstanceTemplate().getRoles(),
+          mountPlan.getMounts(event.getInstanceTemplate().getRoles())));
     }
     if (CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getBoolean(CONFIG_WHIRR_FIREWALL_ENABLE, true)) {
       Set<Integer> ports = CmServerClusterInstance.portsPush(event, getPortsClient(event));
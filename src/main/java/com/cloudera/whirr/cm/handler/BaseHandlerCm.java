@@ -39,8 +39,11 @@ public abstract class BaseHandlerCm extends BaseHandler {
     super.beforeBootstrap(event);
     addStatement(event, call("configure_hostnames"));
     addStatement(event, call("retry_helpers"));
+    addStatement(event, call("package_helpers"));
+    addStatement(event, callImageHelpers(event.getClusterSpec()));
+    addStatement(event, callArtefactHelpers(event.getClusterSpec()));
     addStatement(event, call("install_cm"));
-    addStatement(event, call("install_cm_java"));
+    addStatement(event, callInstallJava(event.getClusterSpec()));
   }
 
 }
@@ -66,8 +66,8 @@ public class CmAgentHandler extends CmNodeHandler {
     } catch (Exception exception) {
     }
     if (cmServerInstance != null) {
-      String firstMount = CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()).iterator()
-          .next();
+      String firstMount = CmServerClusterInstance.getMountPlan(event.getClusterSpec(), event.getCluster())
+          .getMounts(event.getInstanceTemplate().getRoles()).first();
       addStatement(
           event,
           call(
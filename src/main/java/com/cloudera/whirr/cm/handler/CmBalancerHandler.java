@@ -21,25 +21,54 @@ import static org.apache.whirr.RolePredicates.role;
 import static org.jclouds.scriptbuilder.domain.Statements.call;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.whirr.Cluster;
-import org.apache.whirr.RolePredicates;
 import org.apache.whirr.service.ClusterActionEvent;
 import org.apache.whirr.service.ClusterActionHandlerSupport;
 import org.apache.whirr.service.FirewallManager.Rule;
 import org.jclouds.scriptbuilder.domain.Statement;
 
 import com.cloudera.whirr.cm.CmConstants;
+import com.cloudera.whirr.cm.CmRoleRegistry;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhHBaseRestServerHandler;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhHBaseThriftServerHandler;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhHdfsHttpFsHandler;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhHiveServer2Handler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhImpalaDaemonHandler;
-import com.google.common.base.Function;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhOozieServerHandler;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhSolrServerHandler;
+import com.cloudera.whirr.cm.server.CmServerCluster;
+import com.cloudera.whirr.cm.server.CmServerService;
+import com.cloudera.whirr.cm.server.CmServerService.CmServerServiceStatus;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
 import com.google.common.base.Joiner;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 
 public class CmBalancerHandler extends ClusterActionHandlerSupport implements CmConstants {
 
   public static final String ROLE = "cm-balancer";
 
+  public static final String CHECK_TCP = "tcp";
+
+  // The services the balancer can front, a service is only listened for when the cluster has instances of its role
+  public static final List<BalancerService> SERVICES = ImmutableList.of(
+      new BalancerService("impala", CmCdhImpalaDaemonHandler.ROLE, 21000, CHECK_TCP),
+      new BalancerService("hiveserver2", CmCdhHiveServer2Handler.ROLE, 10000, CHECK_TCP),
+      new BalancerService("hbasethrift", CmCdhHBaseThriftServerHandler.ROLE, 9090, CHECK_TCP),
+      new BalancerService("hbaserest", CmCdhHBaseRestServerHandler.ROLE, 20550, "/version/cluster"),
+      new BalancerService("httpfs", CmCdhHdfsHttpFsHandler.ROLE, 14000,
+          "/webhdfs/v1/?op=GETHOMEDIRECTORY&user.name=httpfs"),
+      new BalancerService("solr", CmCdhSolrServerHandler.ROLE, 8983, "/solr/"),
+      new BalancerService("oozie", CmCdhOozieServerHandler.ROLE, 11000, "/oozie/v1/admin/status"));
+
   @Override
   public String getRole() {
     return ROLE;
@@ -48,32 +77,132 @@ public class CmBalancerHandler extends ClusterActionHandlerSupport implements Cm
   @Override
   protected void beforeStart(ClusterActionEvent event) throws IOException, InterruptedException {
     super.beforeStart(event);
-    final String portBalancerImpala = CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getString(
-        CmConstants.CONFIG_WHIRR_INTERNAL_PORT_BALANCER_IMPALA);
+    Configuration configuration = CmServerClusterInstance.getConfiguration(event.getClusterSpec());
+    Map<BalancerService, List<String>> backends = getBackends(configuration, event.getCluster().getInstances(),
+        event.getInstanceTemplate().getRoles());
     addStatement(event, call("retry_helpers"));
-    addStatement(
-        event,
-        call(
-            "configure_cm_balancer",
-            "-b",
-            portBalancerImpala,
-            "-h",
-            Joiner.on(',').join(
-                Lists.transform(
-                    Lists.newArrayList(event.getCluster().getInstancesMatching(
-                        RolePredicates.role(CmCdhImpalaDaemonHandler.ROLE))), new Function<Cluster.Instance, String>() {
-                      @Override
-                      public String apply(Cluster.Instance input) {
-                        return input.getPrivateIp() + ":" + portBalancerImpala;
-                      }
-                    }))));
-    if (CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getBoolean(CONFIG_WHIRR_FIREWALL_ENABLE, true)) {
-      event.getFirewallManager().addRules(
-          Rule.create().destination(role(getRole())).ports(Integer.parseInt(portBalancerImpala)));
+    addStatement(event, call("package_helpers"));
+    addStatement(event, callConfigure(configuration, backends));
+    if (configuration.getBoolean(CONFIG_WHIRR_FIREWALL_ENABLE, true) && !backends.isEmpty()) {
+      List<Integer> ports = new ArrayList<Integer>();
+      for (BalancerService service : backends.keySet()) {
+        ports.add(service.getPortBalancer(configuration));
+      }
+      event.getFirewallManager().addRules(Rule.create().destination(role(getRole())).ports(Ints.toArray(ports)));
       for (Statement portIngressStatement : event.getFirewallManager().getRulesAsStatements()) {
         addStatement(event, portIngressStatement);
       }
     }
   }
 
+  // Backend addresses by fronted service, services with no backends or whose balancer port would clash with a backend
+  // colocated on the balancer itself are left out
+  public static Map<BalancerService, List<String>> getBackends(Configuration configuration,
+      Set<Cluster.Instance> instances, Set<String> rolesBalancer) {
+    Map<BalancerService, List<String>> backends = new LinkedHashMap<BalancerService, List<String>>();
+    for (BalancerService service : SERVICES) {
+      if (isListenable(configuration, service, rolesBalancer)) {
+        List<String> servers = new ArrayList<String>();
+        for (Cluster.Instance instance : instances) {
+          if (instance.getRoles().contains(service.getRole())) {
+            servers.add(instance.getPrivateIp() + ":" + service.getPort());
+          }
+        }
+        if (!servers.isEmpty()) {
+          backends.put(service, servers);
+        }
+      }
+    }
+    return backends;
+  }
+
+  // Backend addresses by fronted service as deployed and started according to CM, rather than as placed at launch
+  public static Map<BalancerService, List<String>> getBackends(Configuration configuration, CmServerCluster cluster,
+      Set<String> rolesBalancer) {
+    Map<BalancerService, List<String>> backends = new LinkedHashMap<BalancerService, List<String>>();
+    for (BalancerService service : SERVICES) {
+      CmServerServiceType type = CmRoleRegistry.getType(service.getRole());
+      if (type != null && isListenable(configuration, service, rolesBalancer)) {
+        List<String> servers = new ArrayList<String>();
+        for (CmServerService server : cluster.getServices(type)) {
+          if (server.getStatus() == CmServerServiceStatus.STARTED && server.getIpInternal() != null) {
+            servers.add(server.getIpInternal() + ":" + service.getPort());
+          }
+        }
+        if (!servers.isEmpty()) {
+          backends.put(service, servers);
+        }
+      }
+    }
+    return backends;
+  }
+
+  private static boolean isListenable(Configuration configuration, BalancerService service, Set<String> rolesBalancer) {
+    return !rolesBalancer.contains(service.getRole()) || service.getPortBalancer(configuration) != service.getPort();
+  }
+
+  public static Statement callConfigure(Configuration configuration, Map<BalancerService, List<String>> backends) {
+    List<String> args = new ArrayList<String>();
+    args.add("-c");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_MAXCONN));
+    args.add("-m");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_SERVER_MAXCONN));
+    args.add("-t");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_TIMEOUT_CONNECT));
+    args.add("-p");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_TIMEOUT_TCP));
+    args.add("-h");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_TIMEOUT_HTTP));
+    args.add("-i");
+    args.add(configuration.getString(CONFIG_WHIRR_BALANCER_CHECK_INTERVAL));
+    for (Map.Entry<BalancerService, List<String>> backend : backends.entrySet()) {
+      args.add("-s");
+      args.add("'"
+          + Joiner.on(';').join(backend.getKey().getName(), backend.getKey().getPortBalancer(configuration),
+              backend.getKey().getCheck(), Joiner.on(',').join(backend.getValue())) + "'");
+    }
+    return call("configure_cm_balancer", args.toArray(new String[args.size()]));
+  }
+
+  public static class BalancerService {
+
+    private final String name;
+    private final String role;
+    private final int port;
+    private final String check;
+
+    public BalancerService(String name, String role, int port, String check) {
+      this.name = name;
+      this.role = role;
+      this.port = port;
+      this.check = check;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getRole() {
+      return role;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public int getPortBalancer(Configuration configuration) {
+      return configuration.getInt(CONFIG_WHIRR_INTERNAL_PORT_BALANCER_PREFIX + name, port);
+    }
+
+    public String getCheck() {
+      return check;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+  }
+
 }
@@ -23,7 +23,9 @@ import static org.jclouds.scriptbuilder.domain.Statements.createOrOverwriteFile;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -31,6 +33,7 @@ import org.apache.whirr.Cluster.Instance;
 import org.apache.whirr.service.ClusterActionEvent;
 
 import com.cloudera.whirr.cm.CmConstants;
+import com.cloudera.whirr.cm.CmServerClusterConfiguration;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
 import com.cloudera.whirr.cm.Utils;
 import com.cloudera.whirr.cm.server.CmServer;
@@ -41,7 +44,6 @@ import com.cloudera.whirr.cm.server.CmServerService.CmServerServiceStatus;
 import com.cloudera.whirr.cm.server.CmServerServiceBuilder;
 import com.cloudera.whirr.cm.server.CmServerServiceType;
 import com.cloudera.whirr.cm.server.CmServerServiceTypeCms;
-import com.cloudera.whirr.cm.server.impl.CmServerLog;
 import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.common.io.CharStreams;
@@ -82,6 +84,8 @@ public class CmServerHandler extends BaseHandlerCm {
     } catch (CmServerException e) {
       throw new IOException("Unexpected error building cluster", e);
     }
+    CmServerClusterConfiguration clusterConfiguration = CmServerClusterInstance.getClusterConfigurationCompiled(
+        event.getClusterSpec(), CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()));
     for (CmServerServiceTypeCms type : CmServerServiceTypeCms.values()) {
       switch (type) {
       case HOSTMONITOR:
@@ -89,18 +93,12 @@ public class CmServerHandler extends BaseHandlerCm {
       case ACTIVITYMONITOR:
       case REPORTSMANAGER:
       case NAVIGATOR:
+        String typeParent = type.getParent() == null ? null : type.getParent().getId();
         addStatement(
             event,
-            call(
-                "install_database",
-                "-t",
-                CmServerClusterInstance.getClusterConfiguration(event.getClusterSpec(),
-                    CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()), type.getId(),
-                    type.getParent() == null ? null : type.getParent().getId(), CONFIG_CM_DB_SUFFIX_TYPE),
-                "-d",
-                CmServerClusterInstance.getClusterConfiguration(event.getClusterSpec(),
-                    CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()), type.getId(),
-                    type.getParent() == null ? null : type.getParent().getId(), "database_name")));
+            callInstallDatabase(event.getClusterSpec(),
+                clusterConfiguration.getSettingBySuffix(type.getId(), typeParent, CONFIG_CM_DB_SUFFIX_TYPE),
+                clusterConfiguration.getSettingBySuffix(type.getId(), typeParent, "database_name")));
         break;
       default:
         break;
@@ -132,11 +130,22 @@ public class CmServerHandler extends BaseHandlerCm {
               Splitter.on('\n').split(
                   CharStreams.toString(Resources.newReaderSupplier(licenceConfigUri, Charsets.UTF_8)))));
     }
-    addStatement(
-        event,
-        call("configure_cm_server", "-t", CmServerClusterInstance.getClusterConfiguration(event.getClusterSpec(),
-            CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()),
-            CmServerServiceTypeCms.CM.getId(), null, CONFIG_CM_DB_SUFFIX_TYPE)));
+    CmServerClusterConfiguration clusterConfiguration = CmServerClusterInstance.getClusterConfigurationCompiled(
+        event.getClusterSpec(), CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()));
+    List<String> configureArgs = new ArrayList<String>();
+    configureArgs.add("-t");
+    configureArgs.add(clusterConfiguration.getSettingBySuffix(CmServerServiceTypeCms.CM.getId(), null,
+        CONFIG_CM_DB_SUFFIX_TYPE));
+    configureArgs.add("-p");
+    configureArgs.add(clusterConfiguration.getSettingBySuffix(CmServerServiceTypeCms.CM.getId(), null,
+        CONFIG_CM_PARCEL_REPO_PATH));
+    String parcelCache = CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getString(
+        CONFIG_WHIRR_PARCEL_CACHE, "");
+    if (!parcelCache.equals("")) {
+      configureArgs.add("-c");
+      configureArgs.add("'" + parcelCache + "'");
+    }
+    addStatement(event, call("configure_cm_server", configureArgs.toArray(new String[configureArgs.size()])));
     CmServerClusterInstance.logLineItemFooterAsync(logger, "HostConfigureInit");
     CmServerClusterInstance.logLineItemAsync(logger, "HostConfigureExecute");
   }
@@ -255,7 +264,11 @@ public class CmServerHandler extends BaseHandlerCm {
                         serverInstance.getPrivateIp(),
                         CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getInt(
                             CONFIG_WHIRR_INTERNAL_PORT_WEB), CM_USER, CM_PASSWORD,
-                        new CmServerLog.CmServerLogSysOut(LOG_TAG_CM_SERVER_API, false)), cluster);
+                        CmServerClusterInstance.getLogger(
+                            CmServerClusterInstance.getConfiguration(event.getClusterSpec()), LOG_TAG_CM_SERVER_API),
+                        CmServerClusterInstance.getHistory(CmServerClusterInstance.getConfiguration(event
+                            .getClusterSpec()))),
+                cluster);
           } finally {
             CmServerClusterInstance.logLineItemFooter(logger, operation);
             CmServerClusterInstance.logLineItem(logger, operation, "");
@@ -271,6 +284,9 @@ public class CmServerHandler extends BaseHandlerCm {
           "Failed to execute (see above), log into the web console to resolve", e);
     } finally {
       CmServerClusterInstance.getCluster(event.getClusterSpec(), true);
+      CmServerClusterInstance.logCacheStats(
+          CmServerClusterInstance.getLogger(CmServerClusterInstance.getConfiguration(event.getClusterSpec()),
+              LOG_TAG_WHIRR_HANDLER), operation);
     }
     if (footer) {
       CmServerClusterInstance.logLineItemFooterFinal(logger);
@@ -20,16 +20,19 @@ package com.cloudera.whirr.cm.handler.cdh;
 import static org.jclouds.scriptbuilder.domain.Statements.call;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.whirr.ClusterSpec;
 import org.apache.whirr.service.ClusterActionEvent;
-import org.apache.whirr.service.ClusterActionHandler;
 
+import com.cloudera.whirr.cm.CmRoleRegistry;
+import com.cloudera.whirr.cm.CmServerClusterConfiguration;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
 import com.cloudera.whirr.cm.handler.BaseHandler;
 import com.cloudera.whirr.cm.handler.CmAgentHandler;
@@ -39,10 +42,37 @@ import com.cloudera.whirr.cm.server.CmServerServiceBuilder;
 import com.cloudera.whirr.cm.server.CmServerServiceType;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
 public abstract class BaseHandlerCmCdh extends BaseHandler {
 
+  private static final Map<String, String> ARTEFACT_ARGS = ImmutableMap.of(CONFIG_WHIRR_OOZIE_EXT_URL, "-e",
+      CONFIG_WHIRR_OOZIE_EXT_SHA1, "-x", CONFIG_WHIRR_JDK_IMPALA_URL, "-j", CONFIG_WHIRR_JDK_IMPALA_SHA1, "-k");
+
+  private static final List<String> PACKAGES_BASE = ImmutableList.of("bigtop-utils", "bigtop-jsvc", "hadoop",
+      "hadoop-client");
+
+  private static final Map<CmServerServiceType, List<String>> PACKAGES = ImmutableMap
+      .<CmServerServiceType, List<String>> builder()
+      .put(CmServerServiceType.HDFS, ImmutableList.of("hadoop-hdfs", "hue-plugins"))
+      .put(CmServerServiceType.HDFS_HTTP_FS, ImmutableList.of("hadoop-hdfs", "hadoop-httpfs", "bigtop-tomcat"))
+      .put(CmServerServiceType.YARN, ImmutableList.of("hadoop-yarn", "hadoop-mapreduce"))
+      .put(CmServerServiceType.MAPREDUCE, ImmutableList.of("hadoop-0.20-mapreduce", "hue-plugins"))
+      .put(CmServerServiceType.ZOOKEEPER, ImmutableList.of("zookeeper"))
+      .put(CmServerServiceType.HBASE, ImmutableList.of("hbase", "zookeeper"))
+      .put(CmServerServiceType.HIVE, ImmutableList.of("hive"))
+      .put(CmServerServiceType.OOZIE, ImmutableList.of("oozie", "oozie-client", "bigtop-tomcat"))
+      .put(CmServerServiceType.HUE, ImmutableList.of("hue"))
+      .put(CmServerServiceType.SQOOP, ImmutableList.of("sqoop"))
+      .put(CmServerServiceType.FLUME, ImmutableList.of("flume-ng", "flume-ng-agent"))
+      .put(CmServerServiceType.IMPALA, ImmutableList.of("impala", "impala-shell"))
+      .put(
+          CmServerServiceType.CLIENT,
+          ImmutableList.of("hadoop-hdfs", "hadoop-mapreduce", "hadoop-yarn", "hadoop-0.20-mapreduce", "hbase", "hive",
+              "oozie-client", "pig", "sqoop", "zookeeper")).build();
+
   public abstract CmServerServiceType getType();
 
   @Override
@@ -73,19 +103,46 @@ public abstract class BaseHandlerCmCdh extends BaseHandler {
       throw new IOException("Unexpected error building cluster", e);
     }
     if (isDatabaseDependent()) {
+      CmServerClusterConfiguration clusterConfiguration = CmServerClusterInstance.getClusterConfigurationCompiled(
+          event.getClusterSpec(), CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()));
+      String typeParent = getType().getParent() == null ? null : getType().getParent().getId();
       addStatement(
           event,
-          call("install_database", "-t", CmServerClusterInstance.getClusterConfiguration(event.getClusterSpec(),
-              CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()), getType().getId(),
-              getType().getParent() == null ? null : getType().getParent().getId(), CONFIG_CM_DB_SUFFIX_TYPE), "-d",
-              CmServerClusterInstance.getClusterConfiguration(event.getClusterSpec(),
-                  CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster()), getType().getId(),
-                  getType().getParent() == null ? null : getType().getParent().getId(), "database_name")));
+          callInstallDatabase(event.getClusterSpec(),
+              clusterConfiguration.getSettingBySuffix(getType().getId(), typeParent, CONFIG_CM_DB_SUFFIX_TYPE),
+              clusterConfiguration.getSettingBySuffix(getType().getId(), typeParent, "database_name")));
     }
-    if (CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getBoolean(CONFIG_WHIRR_USE_PACKAGES, false)) {
+    if (CmServerClusterInstance.getConfiguration(event.getClusterSpec()).getBoolean(CONFIG_WHIRR_USE_PACKAGES, false)
+        && getRole().equals(getRoleLead(event.getInstanceTemplate().getRoles()))) {
       addStatement(event, call("register_cdh_repo"));
-      addStatement(event, call("install_cdh_packages"));
+      addStatement(event, call("install_cdh_packages", getPackages(event.getInstanceTemplate().getRoles())
+          .toArray(new String[0])));
+    }
+  }
+
+  // The first CDH role on an instance template installs the packages for all of the template's CDH roles
+  public static String getRoleLead(Set<String> roles) {
+    for (String role : roles) {
+      if (CmRoleRegistry.getType(role) != null) {
+        return role;
+      }
     }
+    return null;
+  }
+
+  public static SortedSet<String> getPackages(Set<String> roles) {
+    SortedSet<String> packages = new TreeSet<String>(PACKAGES_BASE);
+    for (String role : roles) {
+      CmServerServiceType type = CmRoleRegistry.getType(role);
+      if (type != null) {
+        if (PACKAGES.containsKey(type)) {
+          packages.addAll(PACKAGES.get(type));
+        } else if (type.getParent() != null && PACKAGES.containsKey(type.getParent())) {
+          packages.addAll(PACKAGES.get(type.getParent()));
+        }
+      }
+    }
+    return packages;
   }
 
   @Override
@@ -107,22 +164,16 @@ public abstract class BaseHandlerCmCdh extends BaseHandler {
   @Override
   protected void beforeConfigure(ClusterActionEvent event) throws IOException, InterruptedException {
     super.beforeConfigure(event);
-    addStatement(
-        event,
-        call(
-            "configure_cm_cdh_pre",
-            "-r",
-            getRole(),
-            "-d",
-            Joiner.on(',').join(
-                Lists.transform(
-                    Lists.newArrayList(CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster())),
-                    new Function<String, String>() {
-                      @Override
-                      public String apply(String input) {
-                        return input;
-                      }
-                    }))));
+    Configuration configuration = CmServerClusterInstance.getConfiguration(event.getClusterSpec());
+    List<String> args = Lists.newArrayList("-r", getRole(), "-d", Joiner.on(',').join(
+        CmServerClusterInstance.getMounts(event.getClusterSpec(), event.getCluster())));
+    for (Map.Entry<String, String> artefact : ARTEFACT_ARGS.entrySet()) {
+      if (!configuration.getString(artefact.getKey(), "").equals("")) {
+        args.add(artefact.getValue());
+        args.add("'" + configuration.getString(artefact.getKey()) + "'");
+      }
+    }
+    addStatement(event, call("configure_cm_cdh_pre", args.toArray(new String[args.size()])));
   }
 
   @Override
@@ -174,15 +225,7 @@ public abstract class BaseHandlerCmCdh extends BaseHandler {
   }
 
   public static Map<String, CmServerServiceType> getRolesToType() {
-    Map<String, CmServerServiceType> roleToType = new HashMap<String, CmServerServiceType>();
-    // It is OK to do this every time, since ServiceLoader creates a cache, which must be weakly
-    // referenced since I had issues with this when caching this under memory pressure (eg maven tests)
-    for (ClusterActionHandler handler : ServiceLoader.load(ClusterActionHandler.class)) {
-      if (handler instanceof BaseHandlerCmCdh) {
-        roleToType.put(handler.getRole(), ((BaseHandlerCmCdh) handler).getType());
-      }
-    }
-    return roleToType;
+    return CmRoleRegistry.getRolesToType();
   }
 
 }
@@ -38,6 +38,7 @@ import org.codehaus.plexus.util.StringUtils;
 import com.cloudera.whirr.cm.server.impl.CmServerFactory;
 import com.cloudera.whirr.cm.server.impl.CmServerImpl;
 import com.cloudera.whirr.cm.server.impl.CmServerLog;
+import com.cloudera.whirr.cm.server.impl.CmServerLogHistory;
 
 public class CmServerBuilder implements CmServerConstants {
 
@@ -68,6 +69,8 @@ public class CmServerBuilder implements CmServerConstants {
 
   private CmServerLog logger = new CmServerLog.CmServerLogSysOut(LOG_TAG_CM_SERVER_CMD, false);
 
+  private CmServerLogHistory history;
+
   private CmServer server;
 
   private static final Map<String, Method> COMMANDS = new HashMap<String, Method>();
@@ -216,6 +219,14 @@ public class CmServerBuilder implements CmServerConstants {
     return this;
   }
 
+  public CmServerBuilder history(CmServerLogHistory history) throws CmServerException {
+    if (history == null) {
+      throw new CmServerException("Illegal history argument passed [" + history + "]");
+    }
+    this.history = history;
+    return this;
+  }
+
   public void execute() throws CmServerException {
     executeObject();
   }
@@ -258,7 +269,7 @@ public class CmServerBuilder implements CmServerConstants {
     }
     if (server == null) {
       server = factory.getCmServer(version, versionApi, versionCdh, ip, ipInternal, port, user, password,
-          new CmServerLog.CmServerLogSysOut(LOG_TAG_CM_SERVER_API, false));
+          new CmServerLog.CmServerLogSysOut(LOG_TAG_CM_SERVER_API, false), history);
     }
     List<Object> paramaters = new ArrayList<Object>();
     for (Class<?> clazz : COMMANDS.get(command).getParameterTypes()) {
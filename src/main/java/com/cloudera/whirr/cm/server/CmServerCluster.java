@@ -18,37 +18,47 @@
 package com.cloudera.whirr.cm.server;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 
+// Reads are lock free against an immutable topology snapshot, mutations are serialised on the instance monitor
+// and atomically publish a new snapshot
 public class CmServerCluster {
 
-  private String name;
-  private boolean isParcel = true;
-  private CmServerService server;
-  private Set<CmServerService> agents = new HashSet<CmServerService>();
-  private Set<CmServerService> nodes = new HashSet<CmServerService>();
+  private volatile String name;
+  private volatile boolean isParcel = true;
+  private volatile Topology topology = new Topology(null, Collections.<CmServerService> emptySet(),
+      Collections.<CmServerService> emptySet(), Collections.<CmServerServiceType, SortedSet<CmServerService>> emptyMap());
+
   private Map<String, Map<String, Map<String, String>>> configuration = new HashMap<String, Map<String, Map<String, String>>>();
-  private Map<CmServerServiceType, Set<CmServerService>> services = new HashMap<CmServerServiceType, Set<CmServerService>>();
+
+  // Merged configuration snapshots keyed by API version, invalidated on any configuration change
+  private ConcurrentMap<Integer, Map<String, Map<String, String>>> configurationMerged = new ConcurrentHashMap<Integer, Map<String, Map<String, String>>>();
 
   public CmServerCluster() {
   }
 
-  public synchronized boolean isEmpty() {
-    for (CmServerServiceType type : services.keySet()) {
-      if (!services.get(type).isEmpty()) {
-        return server == null || agents.isEmpty() && nodes.isEmpty();
+  public boolean isEmpty() {
+    Topology topology = this.topology;
+    for (CmServerServiceType type : topology.services.keySet()) {
+      if (!topology.services.get(type).isEmpty()) {
+        return topology.server == null || topology.agents.isEmpty() && topology.nodes.isEmpty();
       }
     }
     return true;
   }
 
-  public synchronized String setName(String name) {
+  public String setName(String name) {
     return this.name = name;
   }
 
@@ -61,6 +71,7 @@ public class CmServerCluster {
       configuration.get(versionApi).put(group, new HashMap<String, String>());
     }
     configuration.get(versionApi).get(group).put(setting, value);
+    configurationMerged.clear();
   }
 
   public synchronized void addServiceConfigurationAll(Map<String, Map<String, Map<String, String>>> configuration)
@@ -87,8 +98,11 @@ public class CmServerCluster {
     default:
       break;
     }
-    if (!services.containsKey(type.getParent())) {
-      services.put(type.getParent(), new TreeSet<CmServerService>());
+    if (!topology.services.containsKey(type.getParent())) {
+      Map<CmServerServiceType, SortedSet<CmServerService>> services = new HashMap<CmServerServiceType, SortedSet<CmServerService>>(
+          topology.services);
+      services.put(type.getParent(), Collections.unmodifiableSortedSet(new TreeSet<CmServerService>()));
+      topology = new Topology(topology.server, topology.agents, topology.nodes, Collections.unmodifiableMap(services));
       return true;
     }
     return false;
@@ -96,127 +110,93 @@ public class CmServerCluster {
 
   public synchronized boolean addService(CmServerService service) throws CmServerException {
     addServiceType(service.getType());
-    if (services.containsKey(service.getType().getParent())) {
-      services.get(service.getType().getParent()).add(service);
+    SortedSet<CmServerService> servicesType = topology.services.get(service.getType().getParent());
+    if (servicesType != null && !servicesType.contains(service)) {
+      Map<CmServerServiceType, SortedSet<CmServerService>> services = new HashMap<CmServerServiceType, SortedSet<CmServerService>>(
+          topology.services);
+      servicesType = new TreeSet<CmServerService>(servicesType);
+      servicesType.add(service);
+      services.put(service.getType().getParent(), Collections.unmodifiableSortedSet(servicesType));
+      topology = new Topology(topology.server, topology.agents, topology.nodes, Collections.unmodifiableMap(services));
     }
     return true;
   }
 
   public synchronized boolean setServer(CmServerService server) throws CmServerException {
-    if (this.server != null) {
+    if (topology.server != null) {
       throw new CmServerException("Invalid cluster topology: Attempt to add multiple servers with existing server "
-          + this.server + " and new server " + server);
+          + topology.server + " and new server " + server);
     }
-    return (this.server = server) != null;
+    topology = new Topology(server, topology);
+    return server != null;
   }
 
   public synchronized boolean addAgent(CmServerService agent) throws CmServerException {
-    if (!agents.add(agent)) {
+    if (topology.agents.contains(agent)) {
       throw new CmServerException("Invalid cluster topology: Attempt to add col-located agents");
     }
+    Set<CmServerService> agents = new HashSet<CmServerService>(topology.agents);
+    agents.add(agent);
+    topology = new Topology(Collections.unmodifiableSet(agents), topology.nodes, topology);
     return true;
   }
 
   public synchronized boolean addNode(CmServerService node) throws CmServerException {
-    if (!nodes.add(node)) {
+    if (topology.nodes.contains(node)) {
       throw new CmServerException("Invalid cluster topology: Attempt to add co-located nodes");
     }
+    Set<CmServerService> nodes = new HashSet<CmServerService>(topology.nodes);
+    nodes.add(node);
+    topology = new Topology(topology.agents, Collections.unmodifiableSet(nodes), topology);
     return true;
   }
 
-  public synchronized Set<CmServerServiceType> getServiceTypes() {
-    return new TreeSet<CmServerServiceType>(services.keySet());
+  public Set<CmServerServiceType> getServiceTypes() {
+    return getServiceTypes(null, CmServerService.VERSION_UNBOUNDED, CmServerService.VERSION_UNBOUNDED);
   }
 
-  public synchronized Set<CmServerServiceType> getServiceTypes(int versionApi, int versionCdh) {
-    Set<CmServerServiceType> types = new TreeSet<CmServerServiceType>();
-    for (CmServerServiceType type : services.keySet()) {
-      if (type.isValid(versionApi, versionCdh)) {
-        types.add(type);
-      }
-    }
-    return types;
+  public Set<CmServerServiceType> getServiceTypes(int versionApi, int versionCdh) {
+    return getServiceTypes(null, versionApi, versionCdh);
   }
 
-  public synchronized Set<CmServerServiceType> getServiceTypes(CmServerServiceType type) {
+  public Set<CmServerServiceType> getServiceTypes(CmServerServiceType type) {
     return getServiceTypes(type, CmServerService.VERSION_UNBOUNDED, CmServerService.VERSION_UNBOUNDED);
   }
 
-  public synchronized Set<CmServerServiceType> getServiceTypes(CmServerServiceType type, int versionApi, int versionCdh) {
-    Set<CmServerServiceType> types = new TreeSet<CmServerServiceType>();
-    if (type.equals(CmServerServiceType.CLUSTER)) {
-      for (CmServerServiceType serviceType : services.keySet()) {
-        for (CmServerService service : services.get(serviceType)) {
-          if (service.getType().isValid(versionApi, versionCdh)) {
-            types.add(service.getType());
-          }
-        }
-      }
-    } else if (services.containsKey(type)) {
-      for (CmServerService service : services.get(type)) {
-        if (service.getType().isValid(versionApi, versionCdh)) {
-          types.add(service.getType());
-        }
-      }
-    } else if (services.containsKey(type.getParent())) {
-      for (CmServerService service : services.get(type.getParent())) {
-        if (service.getType().equals(type)) {
-          if (service.getType().isValid(versionApi, versionCdh)) {
-            types.add(service.getType());
-          }
-        }
-      }
-    }
-    return types;
+  // A null type indexes the top level service types, otherwise the concrete role types under type
+  public Set<CmServerServiceType> getServiceTypes(CmServerServiceType type, int versionApi, int versionCdh) {
+    return topology.getServiceTypes(type, versionApi, versionCdh);
   }
 
-  public synchronized CmServerService getService(CmServerServiceType type) {
+  public CmServerService getService(CmServerServiceType type) {
     return getService(type, CmServerService.VERSION_UNBOUNDED, CmServerService.VERSION_UNBOUNDED);
   }
 
-  public synchronized CmServerService getService(CmServerServiceType type, int vesionApi, int versionCdh) {
+  public CmServerService getService(CmServerServiceType type, int vesionApi, int versionCdh) {
     Set<CmServerService> serviceCopy = getServices(type, vesionApi, versionCdh);
     return serviceCopy.size() == 0 ? null : serviceCopy.iterator().next();
   }
 
-  public synchronized Set<CmServerService> getServices(CmServerServiceType type) {
+  public Set<CmServerService> getServices(CmServerServiceType type) {
     return getServices(type, CmServerService.VERSION_UNBOUNDED, CmServerService.VERSION_UNBOUNDED);
   }
 
-  public synchronized Set<CmServerService> getServices(CmServerServiceType type, int versionApi, int versionCdh) {
-    Set<CmServerService> servicesCopy = new TreeSet<CmServerService>();
-    if (type.equals(CmServerServiceType.CLUSTER)) {
-      for (CmServerServiceType serviceType : services.keySet()) {
-        if (type.isValid(versionApi, versionCdh)) {
-          for (CmServerService serviceTypeSub : services.get(serviceType)) {
-            if (serviceTypeSub.getType().isValid(versionApi, versionCdh)) {
-              servicesCopy.add(serviceTypeSub);
-            }
-          }
-        }
-      }
-    } else if (services.containsKey(type)) {
-      for (CmServerService serviceTypeSub : services.get(type)) {
-        if (serviceTypeSub.getType().isValid(versionApi, versionCdh)) {
-          servicesCopy.add(serviceTypeSub);
-        }
-      }
-    } else if (services.containsKey(type.getParent())) {
-      for (CmServerService service : services.get(type.getParent())) {
-        if (service.getType().equals(type)) {
-          if (service.getType().isValid(versionApi, versionCdh)) {
-            servicesCopy.add(service);
-          }
-        }
-      }
-    }
-    return servicesCopy;
+  public Set<CmServerService> getServices(CmServerServiceType type, int versionApi, int versionCdh) {
+    return topology.getServices(type, versionApi, versionCdh);
+  }
+
+  // Services co-located on the given host, matched by host name, IP or internal IP
+  public Set<CmServerService> getServicesOnHost(String host) {
+    return topology.getServicesOnHost(host);
   }
 
-  public synchronized String getServiceName(CmServerServiceType type) throws IOException {
+  public String getServiceName(CmServerServiceType type) throws IOException {
+    String name = this.name;
     if (type.equals(CmServerServiceType.CLUSTER) && name != null) {
       return name;
     }
+    Topology topology = this.topology;
+    Map<CmServerServiceType, SortedSet<CmServerService>> services = topology.services;
     if (services.get(type) != null) {
       CmServerService service = services.get(type).iterator().next();
       if (service.getType().equals(type)) {
@@ -226,47 +206,78 @@ public class CmServerCluster {
       }
     } else {
       Set<CmServerService> servicesChild = null;
-      if (!services.isEmpty() && !(servicesChild = services.get(getServiceTypes().iterator().next())).isEmpty()) {
+      if (!services.isEmpty()
+          && !(servicesChild = services.get(topology.getServiceTypes(null, CmServerService.VERSION_UNBOUNDED,
+              CmServerService.VERSION_UNBOUNDED).first())).isEmpty()) {
         return new CmServerServiceBuilder().type(type).tag(servicesChild.iterator().next().getTag()).build().getName();
       }
     }
     throw new IOException("Cannot determine service name, cluster is empty");
   }
 
-  public synchronized CmServerService getServer() {
-    return server;
+  public CmServerService getServer() {
+    return topology.server;
   }
 
-  public synchronized Set<CmServerService> getAgents() {
-    return new HashSet<CmServerService>(agents);
+  public Set<CmServerService> getAgents() {
+    return topology.agents;
   }
 
-  public synchronized Set<CmServerService> getNodes() {
-    return new HashSet<CmServerService>(nodes);
+  public Set<CmServerService> getNodes() {
+    return topology.nodes;
   }
 
+  // A read only copy, addServiceConfiguration remains the only write path so the merged snapshots stay valid
   public synchronized Map<String, Map<String, Map<String, String>>> getServiceConfiguration() {
+    Map<String, Map<String, Map<String, String>>> configurationCopy =
+        new HashMap<String, Map<String, Map<String, String>>>();
+    for (Map.Entry<String, Map<String, Map<String, String>>> configVersion : configuration.entrySet()) {
+      Map<String, Map<String, String>> configGroups = new HashMap<String, Map<String, String>>();
+      for (Map.Entry<String, Map<String, String>> configGroup : configVersion.getValue().entrySet()) {
+        configGroups.put(configGroup.getKey(), Collections.unmodifiableMap(new HashMap<String, String>(configGroup
+            .getValue())));
+      }
+      configurationCopy.put(configVersion.getKey(), Collections.unmodifiableMap(configGroups));
+    }
+    return Collections.unmodifiableMap(configurationCopy);
+  }
+
+  public Map<String, Map<String, String>> getServiceConfiguration(int versionApi) {
+    Map<String, Map<String, String>> configuration = configurationMerged.get(versionApi);
+    if (configuration == null) {
+      synchronized (this) {
+        if ((configuration = configurationMerged.get(versionApi)) == null) {
+          configurationMerged.put(versionApi, configuration = getServiceConfigurationMerged(versionApi));
+        }
+      }
+    }
     return configuration;
   }
 
-  public synchronized Map<String, Map<String, String>> getServiceConfiguration(int versionApi) {
-    Map<String, Map<String, String>> configuration = new HashMap<String, Map<String, String>>();
+  private Map<String, Map<String, String>> getServiceConfigurationMerged(int versionApi) {
+    // Merge in ascending version order so that later API versions override earlier ones
+    Map<Integer, Map<String, Map<String, String>>> configurationVersioned = new TreeMap<Integer, Map<String, Map<String, String>>>();
     for (String configVersion : this.configuration.keySet()) {
-      for (String configGroup : this.configuration.get(configVersion).keySet()) {
-        for (String configSetting : this.configuration.get(configVersion).get(configGroup).keySet()) {
-          if (StringUtils.isNumeric(configVersion)) {
-            if (versionApi < 0 || Integer.parseInt(configVersion) <= versionApi) {
-              if (configuration.get(configGroup) == null) {
-                configuration.put(configGroup, new HashMap<String, String>());
-              }
-              configuration.get(configGroup).put(configSetting,
-                  this.configuration.get(configVersion).get(configGroup).get(configSetting));
-            }
-          }
+      if (StringUtils.isNumeric(configVersion)) {
+        int configVersionInt = Integer.parseInt(configVersion);
+        if (versionApi < 0 || configVersionInt <= versionApi) {
+          configurationVersioned.put(configVersionInt, this.configuration.get(configVersion));
         }
       }
     }
-    return configuration;
+    Map<String, Map<String, String>> configuration = new HashMap<String, Map<String, String>>();
+    for (Map<String, Map<String, String>> configVersion : configurationVersioned.values()) {
+      for (Map.Entry<String, Map<String, String>> configGroup : configVersion.entrySet()) {
+        if (configuration.get(configGroup.getKey()) == null) {
+          configuration.put(configGroup.getKey(), new HashMap<String, String>());
+        }
+        configuration.get(configGroup.getKey()).putAll(configGroup.getValue());
+      }
+    }
+    for (Map.Entry<String, Map<String, String>> configGroup : configuration.entrySet()) {
+      configGroup.setValue(Collections.unmodifiableMap(configGroup.getValue()));
+    }
+    return Collections.unmodifiableMap(configuration);
   }
 
   public void setIsParcel(boolean isParcel) {
@@ -277,4 +288,168 @@ public class CmServerCluster {
     return isParcel;
   }
 
+  // Immutable topology snapshot, with indexes pre-filtered for validity per version pair and built lazily
+  private static final class Topology {
+
+    private final CmServerService server;
+    private final Set<CmServerService> agents;
+    private final Set<CmServerService> nodes;
+    private final Map<CmServerServiceType, SortedSet<CmServerService>> services;
+
+    private final ConcurrentMap<IndexKey, SortedSet<CmServerService>> indexServices;
+    private final ConcurrentMap<IndexKey, SortedSet<CmServerServiceType>> indexTypes;
+    private volatile Map<String, SortedSet<CmServerService>> indexHosts;
+
+    public Topology(CmServerService server, Set<CmServerService> agents, Set<CmServerService> nodes,
+        Map<CmServerServiceType, SortedSet<CmServerService>> services) {
+      this.server = server;
+      this.agents = agents;
+      this.nodes = nodes;
+      this.services = services;
+      this.indexServices = new ConcurrentHashMap<IndexKey, SortedSet<CmServerService>>();
+      this.indexTypes = new ConcurrentHashMap<IndexKey, SortedSet<CmServerServiceType>>();
+    }
+
+    // Snapshots that leave services untouched share their indexes
+    public Topology(CmServerService server, Topology topology) {
+      this(server, topology.agents, topology.nodes, topology);
+    }
+
+    public Topology(Set<CmServerService> agents, Set<CmServerService> nodes, Topology topology) {
+      this(topology.server, agents, nodes, topology);
+    }
+
+    private Topology(CmServerService server, Set<CmServerService> agents, Set<CmServerService> nodes,
+        Topology topology) {
+      this.server = server;
+      this.agents = agents;
+      this.nodes = nodes;
+      this.services = topology.services;
+      this.indexServices = topology.indexServices;
+      this.indexTypes = topology.indexTypes;
+      this.indexHosts = topology.indexHosts;
+    }
+
+    public SortedSet<CmServerServiceType> getServiceTypes(CmServerServiceType type, int versionApi, int versionCdh) {
+      IndexKey key = new IndexKey(type, versionApi, versionCdh);
+      SortedSet<CmServerServiceType> types = indexTypes.get(key);
+      if (types == null) {
+        indexTypes.putIfAbsent(key,
+            types = Collections.unmodifiableSortedSet(type == null ? indexServiceTypes(versionApi, versionCdh)
+                : indexServiceTypes(type, versionApi, versionCdh)));
+      }
+      return types;
+    }
+
+    private SortedSet<CmServerServiceType> indexServiceTypes(int versionApi, int versionCdh) {
+      SortedSet<CmServerServiceType> types = new TreeSet<CmServerServiceType>();
+      for (CmServerServiceType type : services.keySet()) {
+        if (type.isValid(versionApi, versionCdh)) {
+          types.add(type);
+        }
+      }
+      return types;
+    }
+
+    private SortedSet<CmServerServiceType> indexServiceTypes(CmServerServiceType type, int versionApi, int versionCdh) {
+      SortedSet<CmServerServiceType> types = new TreeSet<CmServerServiceType>();
+      for (CmServerServiceType serviceType : type.equals(CmServerServiceType.CLUSTER) ? services.keySet()
+          : Collections.singleton(type)) {
+        for (CmServerService service : getServices(serviceType, versionApi, versionCdh)) {
+          types.add(service.getType());
+        }
+      }
+      return types;
+    }
+
+    public SortedSet<CmServerService> getServices(CmServerServiceType type, int versionApi, int versionCdh) {
+      IndexKey key = new IndexKey(type, versionApi, versionCdh);
+      SortedSet<CmServerService> servicesIndexed = indexServices.get(key);
+      if (servicesIndexed == null) {
+        indexServices.putIfAbsent(key,
+            servicesIndexed = Collections.unmodifiableSortedSet(indexServices(type, versionApi, versionCdh)));
+      }
+      return servicesIndexed;
+    }
+
+    private SortedSet<CmServerService> indexServices(CmServerServiceType type, int versionApi, int versionCdh) {
+      SortedSet<CmServerService> servicesCopy = new TreeSet<CmServerService>();
+      if (type.equals(CmServerServiceType.CLUSTER)) {
+        if (type.isValid(versionApi, versionCdh)) {
+          for (CmServerServiceType serviceType : services.keySet()) {
+            servicesCopy.addAll(getServices(serviceType, versionApi, versionCdh));
+          }
+        }
+      } else if (services.containsKey(type)) {
+        for (CmServerService serviceTypeSub : services.get(type)) {
+          if (serviceTypeSub.getType().isValid(versionApi, versionCdh)) {
+            servicesCopy.add(serviceTypeSub);
+          }
+        }
+      } else if (services.containsKey(type.getParent())) {
+        for (CmServerService service : services.get(type.getParent())) {
+          if (service.getType().equals(type)) {
+            if (service.getType().isValid(versionApi, versionCdh)) {
+              servicesCopy.add(service);
+            }
+          }
+        }
+      }
+      return servicesCopy;
+    }
+
+    public Set<CmServerService> getServicesOnHost(String host) {
+      Map<String, SortedSet<CmServerService>> indexHosts = this.indexHosts;
+      if (indexHosts == null) {
+        Map<String, SortedSet<CmServerService>> hosts = new HashMap<String, SortedSet<CmServerService>>();
+        for (CmServerService service : getServices(CmServerServiceType.CLUSTER, CmServerService.VERSION_UNBOUNDED,
+            CmServerService.VERSION_UNBOUNDED)) {
+          for (String address : new String[] { service.getHost(), service.getIp(), service.getIpInternal() }) {
+            if (address != null) {
+              if (hosts.get(address) == null) {
+                hosts.put(address, new TreeSet<CmServerService>());
+              }
+              hosts.get(address).add(service);
+            }
+          }
+        }
+        for (Map.Entry<String, SortedSet<CmServerService>> hostServices : hosts.entrySet()) {
+          hostServices.setValue(Collections.unmodifiableSortedSet(hostServices.getValue()));
+        }
+        this.indexHosts = indexHosts = hosts;
+      }
+      SortedSet<CmServerService> hostServices = indexHosts.get(host);
+      return hostServices == null ? Collections.<CmServerService> emptySet() : hostServices;
+    }
+
+  }
+
+  private static final class IndexKey {
+
+    private final CmServerServiceType type;
+    private final int versionApi;
+    private final int versionCdh;
+
+    public IndexKey(CmServerServiceType type, int versionApi, int versionCdh) {
+      this.type = type;
+      this.versionApi = versionApi;
+      this.versionCdh = versionCdh;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((type == null ? -1 : type.ordinal()) * 31 + versionApi) * 31 + versionCdh;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (object instanceof IndexKey) {
+        IndexKey key = (IndexKey) object;
+        return type == key.type && versionApi == key.versionApi && versionCdh == key.versionCdh;
+      }
+      return false;
+    }
+
+  }
+
 }
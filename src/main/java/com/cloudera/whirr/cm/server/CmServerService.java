@@ -17,6 +17,9 @@
  */
 package com.cloudera.whirr.cm.server;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class CmServerService implements Comparable<CmServerService> {
 
   public enum CmServerServiceStatus {
@@ -29,14 +32,22 @@ public class CmServerService implements Comparable<CmServerService> {
   public static final String NAME_QUALIFIER_DEFAULT = "1";
   public static final String NAME_QUALIFIER_GROUP = "group";
 
-  private String name;
-  private String group;
-  private CmServerServiceType type;
-  private String tag;
-  private String qualifier;
-  private String host;
-  private String ip;
-  private String ipInternal;
+  // Parsed, immutable name identities shared across all services of the same name
+  private static final int IDENTITIES_MAX = 65536;
+  private static final ConcurrentMap<String, Identity> IDENTITIES = new ConcurrentHashMap<String, Identity>();
+
+  private static final String[] TYPE_NAMES = new String[CmServerServiceType.values().length];
+  static {
+    for (CmServerServiceType type : CmServerServiceType.values()) {
+      TYPE_NAMES[type.ordinal()] = type.toString().toLowerCase();
+    }
+  }
+
+  private final Identity identity;
+  private final String host;
+  private final String ip;
+  private final String ipInternal;
+  private final int hashCode;
 
   private transient CmServerServiceStatus status = CmServerServiceStatus.UNKNOWN;
 
@@ -46,21 +57,22 @@ public class CmServerService implements Comparable<CmServerService> {
     if (name == null) {
       throw new IllegalArgumentException("Illegal argumnents passed to constructor");
     }
-    String tag = _getTag(name);
-    String qualifier = _getQualifier(name);
-    CmServerServiceType type = _getType(name);
-    if (tag == null || qualifier == null || type == null || !_getName(type, tag, qualifier).equals(name)) {
-      throw new IllegalArgumentException("Illegal argumnents passed to constructor");
+    Identity identity = IDENTITIES.get(name);
+    if (identity == null) {
+      String tag = _getTag(name);
+      String qualifier = _getQualifier(name);
+      CmServerServiceType type = _getType(name);
+      if (tag == null || qualifier == null || type == null || !_getName(type, tag, qualifier).equals(name)) {
+        throw new IllegalArgumentException("Illegal argumnents passed to constructor");
+      }
+      identity = intern(new Identity(name, type, tag, qualifier));
     }
-    this.name = name;
-    this.group = _getName(type, tag, NAME_QUALIFIER_GROUP);
-    this.type = type;
-    this.tag = tag;
-    this.qualifier = qualifier;
+    this.identity = identity;
     this.host = host;
     this.ip = ip;
     this.ipInternal = ipInternal;
     this.status = status;
+    this.hashCode = _getHashCode();
   }
 
   protected CmServerService(CmServerServiceType type, String tag, String qualifier, String host, String ip,
@@ -69,45 +81,39 @@ public class CmServerService implements Comparable<CmServerService> {
         || qualifier.contains(NAME_TOKEN_DELIM)) {
       throw new IllegalArgumentException("Illegal argumnents passed to constructor");
     }
-    this.name = _getName(type, tag, qualifier);
-    this.group = _getName(type, tag, NAME_QUALIFIER_GROUP);
-    this.type = type;
-    this.tag = tag;
-    this.qualifier = qualifier;
+    String name = _getName(type, tag, qualifier);
+    Identity identity = IDENTITIES.get(name);
+    this.identity = identity == null ? intern(new Identity(name, type, tag, qualifier)) : identity;
     this.host = host;
     this.ip = ip;
     this.ipInternal = ipInternal;
     this.status = status;
+    this.hashCode = _getHashCode();
+  }
+
+  private static Identity intern(Identity identity) {
+    if (IDENTITIES.size() >= IDENTITIES_MAX) {
+      IDENTITIES.clear();
+    }
+    Identity identityInterned = IDENTITIES.putIfAbsent(identity.name, identity);
+    return identityInterned == null ? identity : identityInterned;
   }
 
   private static String _getName(CmServerServiceType type, String tag, String qualifier) {
-    return tag + NAME_TOKEN_DELIM + type.toString().toLowerCase() + NAME_TOKEN_DELIM + qualifier;
+    return new StringBuilder(tag.length() + qualifier.length() + 32).append(tag).append(NAME_TOKEN_DELIM)
+        .append(TYPE_NAMES[type.ordinal()]).append(NAME_TOKEN_DELIM).append(qualifier).toString();
   }
 
   private static String _getTag(String name) {
-    String tag;
-    try {
-      tag = name.substring(0, name.indexOf(NAME_TOKEN_DELIM));
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Illegal name [" + name + "]");
-    }
-    if (tag.contains(NAME_TOKEN_DELIM)) {
+    int index = name.indexOf(NAME_TOKEN_DELIM);
+    if (index < 0) {
       throw new IllegalArgumentException("Illegal name [" + name + "]");
     }
-    return tag;
+    return name.substring(0, index);
   }
 
   private static String _getQualifier(String name) {
-    String qualifier;
-    try {
-      qualifier = name.substring(name.lastIndexOf(NAME_TOKEN_DELIM) + 1, name.length());
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Illegal name [" + name + "]");
-    }
-    if (qualifier.contains(NAME_TOKEN_DELIM)) {
-      throw new IllegalArgumentException("Illegal name [" + name + "]");
-    }
-    return qualifier;
+    return name.substring(name.lastIndexOf(NAME_TOKEN_DELIM) + 1, name.length());
   }
 
   private static CmServerServiceType _getType(String name) {
@@ -119,27 +125,53 @@ public class CmServerService implements Comparable<CmServerService> {
     }
   }
 
+  private int _getHashCode() {
+    int hashCode = identity.hashCode;
+    hashCode = 31 * hashCode + (host == null ? 0 : host.hashCode());
+    hashCode = 31 * hashCode + (ip == null ? 0 : ip.hashCode());
+    return 31 * hashCode + (ipInternal == null ? 0 : ipInternal.hashCode());
+  }
+
+  private static int compare(String string1, String string2) {
+    return string1 == string2 ? 0 : string1 == null ? -1 : string2 == null ? 1 : string1.compareTo(string2);
+  }
+
+  private static boolean equals(String string1, String string2) {
+    return string1 == string2 || string1 != null && string1.equals(string2);
+  }
+
   @Override
   public int compareTo(CmServerService service) {
-    int compareTo = 0;
-    if (getType() != null && service.getType() != null) {
-      compareTo = getType().compareTo(service.getType());
+    if (this == service) {
+      return 0;
     }
+    int compareTo = identity.compareTo(service.identity);
     if (compareTo == 0) {
-      compareTo = toString().compareTo(service.toString());
+      compareTo = compare(host, service.host);
+    }
+    if (compareTo == 0) {
+      compareTo = compare(ip, service.ip);
+    }
+    if (compareTo == 0) {
+      compareTo = compare(ipInternal, service.ipInternal);
     }
     return compareTo;
   }
 
   @Override
   public int hashCode() {
-    return toString().hashCode();
+    return hashCode;
   }
 
   @Override
   public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    }
     if (object instanceof CmServerService) {
-      return toString().equals(object.toString());
+      CmServerService service = (CmServerService) object;
+      return hashCode == service.hashCode && identity.name.equals(service.identity.name) && equals(host, service.host)
+          && equals(ip, service.ip) && equals(ipInternal, service.ipInternal);
     }
     return false;
   }
@@ -151,19 +183,19 @@ public class CmServerService implements Comparable<CmServerService> {
       StringBuilder string = new StringBuilder();
       string.append("{");
       string.append("name=");
-      string.append(name);
+      string.append(identity.name);
       string.append(", ");
       string.append("group=");
-      string.append(group);
+      string.append(identity.group);
       string.append(", ");
       string.append("type=");
-      string.append(type);
+      string.append(identity.type);
       string.append(", ");
       string.append("tag=");
-      string.append(tag);
+      string.append(identity.tag);
       string.append(", ");
       string.append("qualifier=");
-      string.append(qualifier);
+      string.append(identity.qualifier);
       string.append(", ");
       string.append("host=");
       string.append(host);
@@ -180,23 +212,23 @@ public class CmServerService implements Comparable<CmServerService> {
   }
 
   public String getName() {
-    return name;
+    return identity.name;
   }
 
   public String getGroup() {
-    return group;
+    return identity.group;
   }
 
   public CmServerServiceType getType() {
-    return type;
+    return identity.type;
   }
 
   public String getTag() {
-    return tag;
+    return identity.tag;
   }
 
   public String getQualifier() {
-    return qualifier;
+    return identity.qualifier;
   }
 
   public String getHost() {
@@ -215,4 +247,61 @@ public class CmServerService implements Comparable<CmServerService> {
     return status;
   }
 
+  // Ordered by type, tag and then qualifier, numeric qualifiers first and in numeric order
+  private static final class Identity implements Comparable<Identity> {
+
+    private final String name;
+    private final String group;
+    private final CmServerServiceType type;
+    private final String tag;
+    private final String qualifier;
+    private final long qualifierNumber;
+    private final int hashCode;
+
+    public Identity(String name, CmServerServiceType type, String tag, String qualifier) {
+      this.name = name;
+      this.group = _getName(type, tag, NAME_QUALIFIER_GROUP);
+      this.type = type;
+      this.tag = tag;
+      this.qualifier = qualifier;
+      this.qualifierNumber = getNumber(qualifier);
+      this.hashCode = name.hashCode();
+    }
+
+    private static long getNumber(String string) {
+      if (string.length() == 0 || string.length() > 18) {
+        return -1;
+      }
+      long number = 0;
+      for (int i = 0; i < string.length(); i++) {
+        char character = string.charAt(i);
+        if (character < '0' || character > '9') {
+          return -1;
+        }
+        number = number * 10 + character - '0';
+      }
+      return number;
+    }
+
+    @Override
+    public int compareTo(Identity identity) {
+      if (this == identity) {
+        return 0;
+      }
+      if (type != identity.type) {
+        return type.ordinal() < identity.type.ordinal() ? -1 : 1;
+      }
+      int compareTo = tag.compareTo(identity.tag);
+      if (compareTo == 0 && qualifierNumber != identity.qualifierNumber) {
+        compareTo = qualifierNumber < 0 ? 1 : identity.qualifierNumber < 0 ? -1
+            : qualifierNumber < identity.qualifierNumber ? -1 : 1;
+      }
+      if (compareTo == 0) {
+        compareTo = qualifier.compareTo(identity.qualifier);
+      }
+      return compareTo;
+    }
+
+  }
+
 }
@@ -17,6 +17,10 @@
  */
 package com.cloudera.whirr.cm.server;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 public enum CmServerServiceType {
 
   // Cluster
@@ -189,12 +193,23 @@ public enum CmServerServiceType {
   }
 
   public static CmServerServiceType valueOfId(String id) {
+    CmServerServiceType type = id == null ? null : ID_TO_TYPE.get(id);
+    if (type == null) {
+      throw new IllegalArgumentException("Unknown " + CmServerServiceType.class.getName() + " id [" + id + "]");
+    }
+    return type;
+  }
+
+  // Ids are not unique (eg GATEWAY and CLIENT), the first declared type for an id wins
+  private static final Map<String, CmServerServiceType> ID_TO_TYPE;
+  static {
+    Map<String, CmServerServiceType> idToType = new HashMap<String, CmServerServiceType>();
     for (CmServerServiceType type : values()) {
-      if (type.getId().equals(id)) {
-        return type;
+      if (!idToType.containsKey(type.getId())) {
+        idToType.put(type.getId(), type);
       }
     }
-    throw new IllegalArgumentException("Unknown " + CmServerServiceType.class.getName() + " id [" + id + "]");
+    ID_TO_TYPE = Collections.unmodifiableMap(idToType);
   }
 
 }
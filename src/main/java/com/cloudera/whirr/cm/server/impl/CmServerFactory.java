@@ -43,4 +43,10 @@ public class CmServerFactory implements CmServerConstants {
     return new CmServerImpl(version, versionApi, versionCdh, ip, ipInternal, port, user, password, logger);
   }
 
+  public CmServer getCmServer(String version, String versionApi, String versionCdh, String ip, String ipInternal,
+      int port, String user, String password, CmServerLog logger, CmServerLogHistory history)
+      throws CmServerException {
+    return new CmServerImpl(version, versionApi, versionCdh, ip, ipInternal, port, user, password, logger, history);
+  }
+
 }
\ No newline at end of file
@@ -107,6 +107,8 @@ public class CmServerImpl implements CmServer {
   private static final String CM_PARCEL_STAGE_DOWNLOADED = "DOWNLOADED";
   private static final String CM_PARCEL_STAGE_DISTRIBUTED = "DISTRIBUTED";
   private static final String CM_PARCEL_STAGE_ACTIVATED = "ACTIVATED";
+  private static final List<String> CM_PARCEL_STAGES = Arrays.asList(new String[] { "AVAILABLE_REMOTELY", "DOWNLOADING",
+      CM_PARCEL_STAGE_DOWNLOADED, "DISTRIBUTING", CM_PARCEL_STAGE_DISTRIBUTED, "ACTIVATING", CM_PARCEL_STAGE_ACTIVATED });
 
   private static final String CM_CONFIG_UPDATE_MESSAGE = "Update base config group with defaults";
 
@@ -114,12 +116,17 @@ public class CmServerImpl implements CmServer {
   private static int API_POLL_PERIOD_BACKOFF_NUMBER = 3;
   private static int API_POLL_PERIOD_BACKOFF_INCRAMENT = 2;
 
+  private static int HISTORY_PERCENTILE_WARN = 95;
+
   private CmServerLog logger;
+  private CmServerLogHistory history;
+  private int apiPollPeriodMs;
 
   private String version;
   private int versionApi;
   private int versionCdh;
   private CmServerService host;
+  private int clusterSize;
 
   final private RootResourceV3 apiResourceRootV3;
   final private RootResourceV4 apiResourceRootV4;
@@ -131,13 +138,25 @@ public class CmServerImpl implements CmServer {
 
   protected CmServerImpl(String version, String vesionApi, String versionCdh, String ip, String ipInternal, int port,
       String user, String password, CmServerLog logger) throws CmServerException {
+    this(version, vesionApi, versionCdh, ip, ipInternal, port, user, password, logger, null);
+  }
+
+  protected CmServerImpl(String version, String vesionApi, String versionCdh, String ip, String ipInternal, int port,
+      String user, String password, CmServerLog logger, CmServerLogHistory history) throws CmServerException {
+    this(version, vesionApi, versionCdh, ip, ipInternal, new ClouderaManagerClientBuilder().withHost(ip).withPort(port)
+        .withUsernamePassword(user, password).build(), logger, history, API_POLL_PERIOD_MS);
+  }
+
+  protected CmServerImpl(String version, String vesionApi, String versionCdh, String ip, String ipInternal,
+      ApiRootResource apiResource, CmServerLog logger, CmServerLogHistory history, int apiPollPeriodMs)
+      throws CmServerException {
     this.version = getVersion(version);
     this.versionApi = getVersionApi(this.version, vesionApi);
     this.versionCdh = getVersionCdh(versionCdh);
     this.host = new CmServerServiceBuilder().ip(ip).ipInternal(ipInternal).build();
     this.logger = logger;
-    ApiRootResource apiResource = new ClouderaManagerClientBuilder().withHost(ip).withPort(port)
-        .withUsernamePassword(user, password).build();
+    this.history = history == null ? CmServerLogHistory.getHistory(null) : history;
+    this.apiPollPeriodMs = apiPollPeriodMs;
     this.apiResourceRootV3 = apiResource.getRootV3();
     this.apiResourceRootV4 = this.versionApi >= 4 ? apiResource.getRootV4() : null;
     this.apiResourceRootV5 = this.versionApi >= 5 ? apiResource.getRootV5() : null;
@@ -569,16 +588,16 @@ public class CmServerImpl implements CmServer {
     boolean executed = false;
     try {
 
-      logger.logOperationStartedSync("ClusterInitialise");
+      long started = logOperationStarted("ClusterInitialise", cluster);
 
-      Map<String, String> configuration = cluster.getServiceConfiguration(versionApi).get(
-          CmServerServiceTypeCms.CM.getId());
+      Map<String, String> configuration = new HashMap<String, String>(cluster.getServiceConfiguration(versionApi).get(
+          CmServerServiceTypeCms.CM.getId()));
       configuration.remove("cm_database_name");
       configuration.remove("cm_database_type");
       executed = CmServerServiceTypeCms.CM.getId() != null
           && provisionCmSettings(configuration).size() >= configuration.size();
 
-      logger.logOperationFinishedSync("ClusterInitialise");
+      logOperationFinished("ClusterInitialise", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterInitialise");
@@ -594,7 +613,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = false;
     try {
 
-      logger.logOperationStartedSync("ClusterProvision");
+      long started = logOperationStarted("ClusterProvision", cluster);
 
       provisionManagement(cluster);
       if (!cluster.isEmpty() && !isProvisioned(cluster)) {
@@ -605,7 +624,7 @@ public class CmServerImpl implements CmServer {
         executed = true;
       }
 
-      logger.logOperationFinishedSync("ClusterProvision");
+      logOperationFinished("ClusterProvision", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterProvision");
@@ -622,7 +641,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = false;
     try {
 
-      logger.logOperationStartedSync("ClusterConfigure");
+      long started = logOperationStarted("ClusterConfigure", cluster);
 
       if (!cluster.isEmpty()) {
         if (!isProvisioned(cluster)) {
@@ -635,7 +654,7 @@ public class CmServerImpl implements CmServer {
         }
       }
 
-      logger.logOperationFinishedSync("ClusterConfigure");
+      logOperationFinished("ClusterConfigure", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterConfigure");
@@ -651,7 +670,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = true;
     try {
 
-      logger.logOperationStartedSync("ClusterStart");
+      long started = logOperationStarted("ClusterStart", cluster);
 
       if (!cluster.isEmpty()) {
         if (!isConfigured(cluster)) {
@@ -681,7 +700,7 @@ public class CmServerImpl implements CmServer {
 
       }
 
-      logger.logOperationFinishedSync("ClusterStart");
+      logOperationFinished("ClusterStart", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterStart");
@@ -697,7 +716,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = true;
     try {
 
-      logger.logOperationStartedSync("ClusterStop");
+      long started = logOperationStarted("ClusterStop", cluster);
 
       if (!cluster.isEmpty()) {
         if (isConfigured(cluster) && !isStopped(cluster)) {
@@ -711,7 +730,7 @@ public class CmServerImpl implements CmServer {
         }
       }
 
-      logger.logOperationFinishedSync("ClusterStop");
+      logOperationFinished("ClusterStop", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterStop");
@@ -728,7 +747,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = false;
     try {
 
-      logger.logOperationStartedSync("ClusterUnConfigure");
+      long started = logOperationStarted("ClusterUnConfigure", cluster);
 
       if (!cluster.isEmpty()) {
         if (isConfigured(cluster)) {
@@ -740,7 +759,7 @@ public class CmServerImpl implements CmServer {
         }
       }
 
-      logger.logOperationFinishedSync("ClusterUnConfigure");
+      logOperationFinished("ClusterUnConfigure", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterUnConfigure");
@@ -757,7 +776,7 @@ public class CmServerImpl implements CmServer {
     boolean executed = false;
     try {
 
-      logger.logOperationStartedSync("ClusterUnProvision");
+      long started = logOperationStarted("ClusterUnProvision", cluster);
 
       if (!cluster.isEmpty()) {
         if (isProvisioned(cluster)) {
@@ -771,7 +790,7 @@ public class CmServerImpl implements CmServer {
         }
       }
 
-      logger.logOperationFinishedSync("ClusterUnProvision");
+      logOperationFinished("ClusterUnProvision", started);
 
     } catch (Exception e) {
       logger.logOperationFailedSync("ClusterUnProvision");
@@ -790,6 +809,30 @@ public class CmServerImpl implements CmServer {
     }
   }
 
+  private long logOperationStarted(String operation, CmServerCluster cluster) {
+    String name = null;
+    try {
+      name = cluster.getServiceName(CmServerServiceType.CLUSTER);
+    } catch (IOException e) {
+      // cluster is empty, log without its name
+    }
+    clusterSize = cluster.getAgents().size() + cluster.getNodes().size();
+    logger.logOperationContext(operation, name, null, null);
+    logOperationEstimate(operation);
+    logger.logOperationStartedSync(operation);
+    return System.currentTimeMillis();
+  }
+
+  private void logOperationFinished(String operation, long started) {
+    history.record(version, "" + versionCdh, clusterSize, operation, System.currentTimeMillis() - started);
+    logger.logOperationFinishedSync(operation);
+  }
+
+  private void logOperationEstimate(String operation) {
+    logger.logOperationEstimate(operation, history.getEstimate(version, "" + versionCdh, clusterSize, operation),
+        history.getPercentile(version, "" + versionCdh, clusterSize, operation, HISTORY_PERCENTILE_WARN));
+  }
+
   private Map<String, String> provisionCmSettings(Map<String, String> config) throws InterruptedException {
 
     Map<String, String> configPostUpdate = new HashMap<String, String>();
@@ -868,10 +911,10 @@ public class CmServerImpl implements CmServer {
                 if (!type.getEnterprise() || enterpriseDeployed) {
                   ApiRoleConfigGroup cmsRoleConfigGroupApiNew = new ApiRoleConfigGroup();
                   ApiServiceConfig cmsServiceConfigApi = new ApiServiceConfig();
-                  if (cluster.getServiceConfiguration(versionApi).get(type.getId()) != null) {
-                    for (String setting : cluster.getServiceConfiguration(versionApi).get(type.getId()).keySet()) {
-                      cmsServiceConfigApi.add(new ApiConfig(setting, cluster.getServiceConfiguration(versionApi)
-                          .get(type.getId()).get(setting)));
+                  Map<String, String> cmsServiceConfig = cluster.getServiceConfiguration(versionApi).get(type.getId());
+                  if (cmsServiceConfig != null) {
+                    for (Map.Entry<String, String> setting : cmsServiceConfig.entrySet()) {
+                      cmsServiceConfigApi.add(new ApiConfig(setting.getKey(), setting.getValue()));
                     }
                   }
                   cmsRoleConfigGroupApiNew.setConfig(cmsServiceConfigApi);
@@ -957,14 +1000,19 @@ public class CmServerImpl implements CmServer {
         new ApiConfigList(Arrays.asList(new ApiConfig[] { new ApiConfig("PARCEL_UPDATE_FREQ", "60") })));
 
     for (String repository : repositoriesRequiredOrdered) {
+      // prefer the newest version already distributed to the agents, as on pre-baked images, to the newest available
       DefaultArtifactVersion parcelVersion = null;
+      boolean parcelDistributed = false;
       for (ApiParcel apiParcel : apiResourceRootV3.getClustersResource().getParcelsResource(getName(cluster))
           .readParcels(DataView.FULL).getParcels()) {
         DefaultArtifactVersion parcelVersionTmp = new DefaultArtifactVersion(apiParcel.getVersion());
+        boolean parcelDistributedTmp = isParcelStage(apiParcel, CM_PARCEL_STAGE_DISTRIBUTED);
         if (apiParcel.getProduct().equals(repository)) {
           if (!apiParcel.getProduct().equals(CDH_REPO_PREFIX) || versionCdh == parcelVersionTmp.getMajorVersion()) {
-            if (parcelVersion == null || parcelVersion.compareTo(parcelVersionTmp) < 0) {
+            if (parcelVersion == null || (!parcelDistributed && parcelDistributedTmp)
+                || (parcelDistributed == parcelDistributedTmp && parcelVersion.compareTo(parcelVersionTmp) < 0)) {
               parcelVersion = new DefaultArtifactVersion(apiParcel.getVersion());
+              parcelDistributed = parcelDistributedTmp;
             }
           }
         }
@@ -972,28 +1020,39 @@ public class CmServerImpl implements CmServer {
 
       final ParcelResource apiParcelResource = apiResourceRootV3.getClustersResource()
           .getParcelsResource(getName(cluster)).getParcelResource(repository, parcelVersion.toString());
-      execute(apiParcelResource.startDownloadCommand(), new Callback() {
-        @Override
-        public boolean poll() {
-          return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_DOWNLOADED);
-        }
-      }, false);
-      execute(apiParcelResource.startDistributionCommand(), new Callback() {
-        @Override
-        public boolean poll() {
-          return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_DISTRIBUTED);
-        }
-      }, false);
-      execute(apiParcelResource.activateCommand(), new Callback() {
-        @Override
-        public boolean poll() {
-          return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_ACTIVATED);
-        }
-      }, false);
+      // parcels pre-seeded into the local repository or pre-baked onto the agents only need their outstanding stages
+      if (!isParcelStage(apiParcelResource.readParcel(), CM_PARCEL_STAGE_DOWNLOADED)) {
+        execute(apiParcelResource.startDownloadCommand(), new Callback() {
+          @Override
+          public boolean poll() {
+            return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_DOWNLOADED);
+          }
+        }, false);
+      }
+      if (!isParcelStage(apiParcelResource.readParcel(), CM_PARCEL_STAGE_DISTRIBUTED)) {
+        execute(apiParcelResource.startDistributionCommand(), new Callback() {
+          @Override
+          public boolean poll() {
+            return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_DISTRIBUTED);
+          }
+        }, false);
+      }
+      if (!isParcelStage(apiParcelResource.readParcel(), CM_PARCEL_STAGE_ACTIVATED)) {
+        execute(apiParcelResource.activateCommand(), new Callback() {
+          @Override
+          public boolean poll() {
+            return apiParcelResource.readParcel().getStage().equals(CM_PARCEL_STAGE_ACTIVATED);
+          }
+        }, false);
+      }
     }
 
   }
 
+  private static boolean isParcelStage(ApiParcel parcel, String stage) {
+    return parcel != null && CM_PARCEL_STAGES.indexOf(parcel.getStage()) >= CM_PARCEL_STAGES.indexOf(stage);
+  }
+
   private void configureServices(final CmServerCluster cluster) throws Exception {
 
     final List<CmServerService> services = getServiceHosts();
@@ -1011,10 +1070,10 @@ public class CmServerImpl implements CmServer {
           apiService.setName(cluster.getServiceName(type));
 
           ApiServiceConfig apiServiceConfig = new ApiServiceConfig();
-          if (cluster.getServiceConfiguration(versionApi).get(type.getId()) != null) {
-            for (String setting : cluster.getServiceConfiguration(versionApi).get(type.getId()).keySet()) {
-              apiServiceConfig.add(new ApiConfig(setting, cluster.getServiceConfiguration(versionApi).get(type.getId())
-                  .get(setting)));
+          Map<String, String> serviceConfig = cluster.getServiceConfiguration(versionApi).get(type.getId());
+          if (serviceConfig != null) {
+            for (Map.Entry<String, String> setting : serviceConfig.entrySet()) {
+              apiServiceConfig.add(new ApiConfig(setting.getKey(), setting.getValue()));
             }
           }
           Set<CmServerServiceType> serviceTypes = cluster.getServiceTypes(versionApi, versionCdh);
@@ -1348,7 +1407,14 @@ public class CmServerImpl implements CmServer {
   private ApiCommand execute(String label, ApiCommand command, Callback callback, boolean checkReturn)
       throws InterruptedException {
     label = WordUtils.capitalize(label.replace("-", " ").replace("_", " ")).replace(" ", "");
+    if (command != null) {
+      logger.logOperationContext(label, command.getClusterRef() == null ? null : command.getClusterRef()
+          .getClusterName(), command.getServiceRef() == null ? null : command.getServiceRef().getServiceName(),
+          command.getId());
+    }
+    logOperationEstimate(label);
     logger.logOperationStartedAsync(label);
+    long started = System.currentTimeMillis();
     ApiCommand commandReturn = null;
     int apiPollPeriods = 1;
     int apiPollPeriodLog = 1;
@@ -1367,10 +1433,11 @@ public class CmServerImpl implements CmServer {
           logger.logOperationFailedAsync(label);
           throw new RuntimeException("Command [" + command + "] failed [" + commandReturn + "]");
         }
+        history.record(version, "" + versionCdh, clusterSize, label, System.currentTimeMillis() - started);
         logger.logOperationFinishedAsync(label);
         return commandReturn;
       }
-      Thread.sleep(API_POLL_PERIOD_MS);
+      Thread.sleep(apiPollPeriodMs);
     }
   }
 
@@ -17,8 +17,18 @@
  */
 package com.cloudera.whirr.cm.server.impl;
 
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +37,8 @@ import com.cloudera.whirr.cm.server.CmServer;
 
 public abstract class CmServerLog {
 
+  protected static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
   protected String tag;
   protected boolean quiet;
 
@@ -61,9 +73,7 @@ public abstract class CmServerLog {
 
   public void logOperation(String operation, String message) {
     if (!quiet) {
-      logMessage((operation == null ? "" : tag == null ? "" : tag + " ")
-          + (operation == null || operation.equals("") ? "" : (tag == null ? "" : "[") + operation
-              + (tag == null ? "" : "]") + " ") + (message == null ? "" : message));
+      logMessage(formatOperation(operation, message));
     }
   }
 
@@ -73,9 +83,7 @@ public abstract class CmServerLog {
 
   public void logOperationIntermediate(String operation, String message) {
     if (!quiet) {
-      logMessageIntermediate((operation == null ? "" : tag == null ? "" : tag + " ")
-          + (operation == null || operation.equals("") ? "" : (tag == null ? "" : "[") + operation
-              + (tag == null ? "" : "]") + " ") + (message == null ? "" : message));
+      logMessageIntermediate(formatOperation(operation, message));
     }
   }
 
@@ -84,18 +92,47 @@ public abstract class CmServerLog {
   }
 
   public void logOperationStackTrace(String operation, Throwable throwable) {
-    if (!quiet) {
-      StringWriter stringWriter = new StringWriter();
-      while (throwable != null) {
-        throwable.printStackTrace(new PrintWriter(stringWriter));
-        for (String stackTraceLine : stringWriter.toString().split(System.getProperty("line.separator"))) {
-          logOperation(operation, stackTraceLine);
-        }
-        throwable = throwable.getCause();
+    if (!quiet && throwable != null) {
+      // printStackTrace walks the cause chain itself, so the trace is rendered and split exactly once
+      StringWriter stringWriter = new StringWriter(1024);
+      PrintWriter printWriter = new PrintWriter(stringWriter);
+      throwable.printStackTrace(printWriter);
+      printWriter.flush();
+      for (String stackTraceLine : stringWriter.toString().split(LINE_SEPARATOR)) {
+        logOperation(operation, stackTraceLine);
       }
     }
   }
 
+  protected String formatOperation(String operation, String message) {
+    StringBuilder builder = new StringBuilder((tag == null ? 0 : tag.length())
+        + (operation == null ? 0 : operation.length()) + (message == null ? 0 : message.length()) + 4);
+    if (operation != null && tag != null) {
+      builder.append(tag).append(' ');
+    }
+    if (operation != null && !operation.equals("")) {
+      if (tag == null) {
+        builder.append(operation);
+      } else {
+        builder.append('[').append(operation).append(']');
+      }
+      builder.append(' ');
+    }
+    if (message != null) {
+      builder.append(message);
+    }
+    return builder.toString();
+  }
+
+  public void logOperationContext(String operation, String cluster, String service, Long command) {
+  }
+
+  public void logOperationEstimate(String operation, long estimate, long threshold) {
+  }
+
+  public void logOperationMetric(String operation, String metric, long value) {
+  }
+
   protected abstract void logMessage(String message);
 
   protected abstract void logMessageIntermediate(String message);
@@ -291,6 +328,26 @@ public abstract class CmServerLog {
 
   public static class CmServerLogSysOut extends CmServerLog {
 
+    private static final int ESTIMATE_PERCENT_STEP = 25;
+
+    // Updated from the caller threads and the progress ticker concurrently
+    private static class Estimate {
+      private final long duration;
+      private final long threshold;
+      private volatile long started;
+      private final AtomicLong percent = new AtomicLong();
+      private final AtomicBoolean warned = new AtomicBoolean();
+
+      public Estimate(long duration, long threshold) {
+        this.duration = duration;
+        this.threshold = threshold;
+      }
+    }
+
+    // Keyed by logger and operation, as the progress ticker keys the operations it polls
+    private static final Map<CmServerLogProgress.Key, Estimate> estimates =
+        new ConcurrentHashMap<CmServerLogProgress.Key, Estimate>();
+
     public CmServerLogSysOut(String tag, boolean quiet) {
       super(tag, quiet);
     }
@@ -313,6 +370,13 @@ public abstract class CmServerLog {
       System.out.print(message);
     }
 
+    @Override
+    public void logOperationEstimate(String operation, long estimate, long threshold) {
+      if (operation != null && estimate > 0) {
+        estimates.put(new CmServerLogProgress.Key(this, operation), new Estimate(estimate, threshold));
+      }
+    }
+
     @Override
     public void logOperation(String operation, CmServerLogSyncCommand command) throws Exception {
       boolean failed = false;
@@ -331,33 +395,35 @@ public abstract class CmServerLog {
 
     @Override
     public void logOperationStartedAsync(String operation) {
-      logOperationIntermediate(operation, "started .");
+      logOperationIntermediate(operation, "started" + getEstimateStarted(operation) + " .");
     }
 
     @Override
     public void logOperationInProgressAsync(String operation) {
-      logOperationIntermediate(".");
+      logOperationIntermediate(getEstimateProgress(operation));
     }
 
     @Override
     public void logOperationFailedAsync(String operation) {
+      estimates.remove(new CmServerLogProgress.Key(this, operation));
       logOperation(".. failed");
     }
 
     @Override
     public void logOperationFailedAsync(String operation, Throwable throwable) {
+      estimates.remove(new CmServerLogProgress.Key(this, operation));
       logOperation(".. failed");
       logOperationStackTrace(operation, throwable);
     }
 
     @Override
     public void logOperationFinishedAsync(String operation) {
-      logOperation(".. finished");
+      logOperation(".. finished" + getEstimateFinished(operation));
     }
 
     @Override
     public void logOperationStartedSync(String operation) {
-      logOperation(operation, "started");
+      logOperation(operation, "started" + getEstimateStarted(operation));
     }
 
     @Override
@@ -367,18 +433,212 @@ public abstract class CmServerLog {
 
     @Override
     public void logOperationFailedSync(String operation) {
+      estimates.remove(new CmServerLogProgress.Key(this, operation));
       logOperation(operation, "failed");
     }
 
     @Override
     public void logOperationFailedSync(String operation, Throwable throwable) {
+      estimates.remove(new CmServerLogProgress.Key(this, operation));
       logOperation(operation, "failed");
       logOperationStackTrace(operation, throwable);
     }
 
     @Override
     public void logOperationFinishedSync(String operation) {
-      logOperation(operation, "finished");
+      logOperation(operation, "finished" + getEstimateFinished(operation));
+    }
+
+    protected String getEstimateStarted(String operation) {
+      Estimate estimate = operation == null ? null : estimates.get(new CmServerLogProgress.Key(this, operation));
+      if (estimate == null) {
+        return "";
+      }
+      estimate.started = System.currentTimeMillis();
+      return ", eta " + formatDuration(estimate.duration);
+    }
+
+    protected String getEstimateProgress(String operation) {
+      Estimate estimate = operation == null ? null : estimates.get(new CmServerLogProgress.Key(this, operation));
+      long started = estimate == null ? 0 : estimate.started;
+      if (started == 0) {
+        return ".";
+      }
+      long elapsed = System.currentTimeMillis() - started;
+      long percent = Math.min(99, elapsed * 100 / estimate.duration);
+      long percentLogged = estimate.percent.get();
+      StringBuilder progress = new StringBuilder(48).append('.');
+      if (percent / ESTIMATE_PERCENT_STEP > percentLogged / ESTIMATE_PERCENT_STEP
+          && estimate.percent.compareAndSet(percentLogged, percent)) {
+        progress.append(' ').append(percent).append("% ");
+      }
+      if (estimate.threshold > 0 && elapsed > estimate.threshold && estimate.warned.compareAndSet(false, true)) {
+        progress.append(" exceeded p95 of ").append(formatDuration(estimate.threshold)).append(' ');
+      }
+      return progress.toString();
+    }
+
+    protected String getEstimateFinished(String operation) {
+      Estimate estimate = operation == null ? null : estimates.remove(new CmServerLogProgress.Key(this, operation));
+      long started = estimate == null ? 0 : estimate.started;
+      if (started == 0) {
+        return "";
+      }
+      long elapsed = System.currentTimeMillis() - started;
+      return " in " + formatDuration(elapsed)
+          + (estimate.threshold > 0 && elapsed > estimate.threshold ? ", exceeded p95 of "
+              + formatDuration(estimate.threshold) : "");
+    }
+
+    private static String formatDuration(long duration) {
+      long seconds = Math.max(1, duration / 1000);
+      return seconds < 60 ? seconds + "s" : (seconds / 60) + "m" + (seconds % 60 < 10 ? "0" : "") + (seconds % 60)
+          + "s";
+    }
+
+  }
+
+  public static class CmServerLogSysOutAsync extends CmServerLogSysOut {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int BUFFER_DRAIN_SIZE = 256;
+    private static final long BUFFER_FLUSH_TIMEOUT_MS = 2000;
+
+    private static final String PROGRESS_TICK = ".";
+
+    private static final BlockingQueue<String> buffer = new ArrayBlockingQueue<String>(BUFFER_SIZE);
+    // Messages enqueued but not yet written, flush waits on this reaching zero
+    private static final AtomicInteger bufferPending = new AtomicInteger();
+    private static final Object bufferFlushed = new Object();
+    private static volatile Thread bufferWriter;
+
+    public CmServerLogSysOutAsync(String tag, boolean quiet) {
+      super(tag, quiet);
+    }
+
+    public CmServerLogSysOutAsync() {
+      super();
+    }
+
+    public CmServerLogSysOutAsync(boolean quiet) {
+      super(null, quiet);
+    }
+
+    @Override
+    protected void logMessage(String message) {
+      enqueue(message + LINE_SEPARATOR);
+    }
+
+    @Override
+    public void logMessageIntermediate(String message) {
+      enqueue(message);
+    }
+
+    @Override
+    public void logOperationInProgressAsync(String operation) {
+      if (!quiet) {
+        String progress = getEstimateProgress(operation);
+        if (progress.equals(PROGRESS_TICK)) {
+          startWriter();
+          // progress ticks carry nothing beyond liveness, drop rather than block under back-pressure
+          bufferPending.incrementAndGet();
+          if (!buffer.offer(PROGRESS_TICK)) {
+            written(1);
+          }
+        } else {
+          enqueue(progress);
+        }
+      }
+    }
+
+    public static void flush() {
+      long deadline = System.currentTimeMillis() + BUFFER_FLUSH_TIMEOUT_MS;
+      synchronized (bufferFlushed) {
+        long remaining;
+        while (bufferPending.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+          try {
+            bufferFlushed.wait(remaining);
+          } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }
+
+    private static void enqueue(String message) {
+      startWriter();
+      bufferPending.incrementAndGet();
+      // never lose a message, an interrupted put is retried and the interrupt restored once it is buffered
+      boolean interrupted = false;
+      while (true) {
+        try {
+          buffer.put(message);
+          break;
+        } catch (InterruptedException exception) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private static void written(int count) {
+      if (bufferPending.addAndGet(-count) == 0) {
+        synchronized (bufferFlushed) {
+          bufferFlushed.notifyAll();
+        }
+      }
+    }
+
+    private static void write(PrintStream stream, List<String> messages) {
+      int length = 0;
+      for (String message : messages) {
+        length += message.length();
+      }
+      StringBuilder builder = new StringBuilder(length);
+      for (String message : messages) {
+        builder.append(message);
+      }
+      stream.print(builder);
+      stream.flush();
+    }
+
+    private static void startWriter() {
+      if (bufferWriter == null) {
+        synchronized (CmServerLogSysOutAsync.class) {
+          if (bufferWriter == null) {
+            Thread writer = new Thread(new Runnable() {
+              @Override
+              public void run() {
+                List<String> messages = new ArrayList<String>(BUFFER_DRAIN_SIZE);
+                try {
+                  while (true) {
+                    // block until there is work, then write it together with whatever queued up behind it
+                    messages.add(buffer.take());
+                    buffer.drainTo(messages, BUFFER_DRAIN_SIZE - 1);
+                    write(System.out, messages);
+                    written(messages.size());
+                    messages.clear();
+                  }
+                } catch (InterruptedException exception) {
+                  // exit
+                }
+              }
+            }, "whirr-cm-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+              @Override
+              public void run() {
+                flush();
+              }
+            }, "whirr-cm-log-flush"));
+            bufferWriter = writer;
+          }
+        }
+      }
     }
 
   }
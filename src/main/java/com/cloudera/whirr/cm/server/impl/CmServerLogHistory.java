@@ -0,0 +1,205 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class CmServerLogHistory {
+
+  public static final long DURATION_UNKNOWN = -1;
+
+  private static final int HISTORY_SAMPLES_MAX = 50;
+  private static final int HISTORY_COMPACT_FACTOR = 2;
+  private static final String HISTORY_DELIM = "\t";
+
+  private static Map<String, CmServerLogHistory> histories = new HashMap<String, CmServerLogHistory>();
+
+  private File file;
+  private Map<String, LinkedList<Long>> durations;
+  private Map<String, LinkedList<Long>> durationsAnySize;
+  private int records;
+
+  public CmServerLogHistory(File file) {
+    this.file = file;
+  }
+
+  // Shared across all clusters recording to the same file, disabled where no file is given
+  public static synchronized CmServerLogHistory getHistory(String path) {
+    if (path == null || path.equals("")) {
+      return new CmServerLogHistory(null);
+    }
+    if (histories.get(path) == null) {
+      histories.put(path, new CmServerLogHistory(new File(path)));
+    }
+    return histories.get(path);
+  }
+
+  public synchronized void record(String version, String versionCdh, int size, String command, long duration) {
+    if (file != null && command != null && duration >= 0) {
+      load();
+      add(version, versionCdh, size, command, duration);
+      Writer writer = null;
+      try {
+        if (file.getParentFile() != null) {
+          file.getParentFile().mkdirs();
+        }
+        writer = new FileWriter(file, true);
+        writer.write(getKey(version, versionCdh, size, command) + HISTORY_DELIM + duration + "\n");
+        records++;
+      } catch (IOException e) {
+        // history is advisory only
+      } finally {
+        if (writer != null) {
+          try {
+            writer.close();
+          } catch (IOException e) {
+            // ignore
+          }
+        }
+      }
+      compact();
+    }
+  }
+
+  // The file is rewritten with only the retained samples once it holds more than a multiple of them, bounding both
+  // its size and the cost of loading it
+  private void compact() {
+    int samples = 0;
+    for (LinkedList<Long> samplesKey : durations.values()) {
+      samples += samplesKey.size();
+    }
+    if (records <= HISTORY_COMPACT_FACTOR * samples) {
+      return;
+    }
+    File fileCompacted = new File(file.getPath() + ".compact");
+    Writer writer = null;
+    try {
+      writer = new FileWriter(fileCompacted);
+      for (Map.Entry<String, LinkedList<Long>> samplesKey : durations.entrySet()) {
+        for (Long duration : samplesKey.getValue()) {
+          writer.write(samplesKey.getKey() + HISTORY_DELIM + duration + "\n");
+        }
+      }
+      writer.close();
+      writer = null;
+      if (fileCompacted.renameTo(file)) {
+        records = samples;
+      }
+    } catch (IOException e) {
+      // history is advisory only
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+      fileCompacted.delete();
+    }
+  }
+
+  public synchronized long getEstimate(String version, String versionCdh, int size, String command) {
+    return getPercentile(version, versionCdh, size, command, 50);
+  }
+
+  public synchronized long getPercentile(String version, String versionCdh, int size, String command, int percentile) {
+    if (file == null || command == null) {
+      return DURATION_UNKNOWN;
+    }
+    load();
+    List<Long> samples = durations.get(getKey(version, versionCdh, size, command));
+    if (samples == null) {
+      samples = durationsAnySize.get(getKey(version, versionCdh, -1, command));
+    }
+    if (samples == null || samples.isEmpty()) {
+      return DURATION_UNKNOWN;
+    }
+    List<Long> samplesSorted = new ArrayList<Long>(samples);
+    Collections.sort(samplesSorted);
+    int index = (int) Math.ceil(percentile / 100D * samplesSorted.size()) - 1;
+    return samplesSorted.get(Math.max(0, Math.min(samplesSorted.size() - 1, index)));
+  }
+
+  private void load() {
+    if (durations == null) {
+      durations = new HashMap<String, LinkedList<Long>>();
+      durationsAnySize = new HashMap<String, LinkedList<Long>>();
+      if (file.exists()) {
+        BufferedReader reader = null;
+        try {
+          reader = new BufferedReader(new FileReader(file));
+          String line;
+          while ((line = reader.readLine()) != null) {
+            records++;
+            String[] tokens = line.split(HISTORY_DELIM);
+            if (tokens.length == 5) {
+              try {
+                add(tokens[0], tokens[1], Integer.parseInt(tokens[2]), tokens[3], Long.parseLong(tokens[4]));
+              } catch (NumberFormatException e) {
+                // ignore corrupt record
+              }
+            }
+          }
+        } catch (IOException e) {
+          // history is advisory only
+        } finally {
+          if (reader != null) {
+            try {
+              reader.close();
+            } catch (IOException e) {
+              // ignore
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void add(String version, String versionCdh, int size, String command, long duration) {
+    add(durations, getKey(version, versionCdh, size, command), duration);
+    add(durationsAnySize, getKey(version, versionCdh, -1, command), duration);
+  }
+
+  private static void add(Map<String, LinkedList<Long>> durations, String key, long duration) {
+    LinkedList<Long> samples = durations.get(key);
+    if (samples == null) {
+      durations.put(key, samples = new LinkedList<Long>());
+    }
+    samples.add(duration);
+    if (samples.size() > HISTORY_SAMPLES_MAX) {
+      samples.removeFirst();
+    }
+  }
+
+  private static String getKey(String version, String versionCdh, int size, String command) {
+    return version + HISTORY_DELIM + versionCdh + HISTORY_DELIM + size + HISTORY_DELIM + command;
+  }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CmServerLogJson extends CmServerLog {
+
+  public static final String PHASE_STARTED = "started";
+  public static final String PHASE_IN_PROGRESS = "in-progress";
+  public static final String PHASE_FINISHED = "finished";
+  public static final String PHASE_FAILED = "failed";
+  public static final String PHASE_METRIC = "metric";
+
+  public static final String STATUS_RUNNING = "running";
+  public static final String STATUS_SUCCEEDED = "succeeded";
+  public static final String STATUS_FAILED = "failed";
+
+  private static final String MODE_SYNC = "sync";
+  private static final String MODE_ASYNC = "async";
+
+  private static class OperationContext {
+    private final String cluster;
+    private final String service;
+    private final Long command;
+
+    public OperationContext(String cluster, String service, Long command) {
+      this.cluster = cluster;
+      this.service = service;
+      this.command = command;
+    }
+  }
+
+  // Loggers on the same sink share its writer, each tracking the operations it has started itself
+  private final CmServerLogJsonSink sink;
+
+  private Map<String, Long> operationStarted = new ConcurrentHashMap<String, Long>();
+  private Map<String, OperationContext> operationContext = new ConcurrentHashMap<String, OperationContext>();
+
+  public CmServerLogJson(String tag, boolean quiet, CmServerLogJsonSink sink) {
+    super(tag, quiet);
+    this.sink = sink;
+  }
+
+  public CmServerLogJson(String tag, boolean quiet, Writer writer) {
+    this(tag, quiet, new CmServerLogJsonSink(writer));
+  }
+
+  @Override
+  public void logOperationContext(String operation, String cluster, String service, Long command) {
+    if (operation != null) {
+      operationContext.put(operation, new OperationContext(cluster, service, command));
+    }
+  }
+
+  @Override
+  public void logOperationMetric(String operation, String metric, long value) {
+    if (quiet || operation == null || metric == null) {
+      return;
+    }
+    StringBuilder event = new StringBuilder(128);
+    event.append('{');
+    appendField(event, "time", System.currentTimeMillis(), false);
+    appendField(event, "tag", tag);
+    appendField(event, "operation", operation);
+    appendField(event, "phase", PHASE_METRIC);
+    appendField(event, "metric", metric);
+    appendField(event, "value", value, true);
+    event.append('}').append('\n');
+    writeEvent(event);
+  }
+
+  @Override
+  public void logOperationStackTrace(String operation, Throwable throwable) {
+  }
+
+  @Override
+  protected void logMessage(String message) {
+  }
+
+  @Override
+  protected void logMessageIntermediate(String message) {
+  }
+
+  @Override
+  public void logOperation(String operation, CmServerLogSyncCommand command) throws Exception {
+    logEvent(operation, MODE_SYNC, PHASE_STARTED, null, null);
+    try {
+      command.execute();
+    } catch (Exception exception) {
+      logEvent(operation, MODE_SYNC, PHASE_FAILED, null, exception);
+      throw exception;
+    }
+    logEvent(operation, MODE_SYNC, PHASE_FINISHED, null, null);
+  }
+
+  @Override
+  public void logOperationStartedSync(String operation) {
+    logEvent(operation, MODE_SYNC, PHASE_STARTED, null, null);
+  }
+
+  @Override
+  public void logOperationInProgressSync(String operation, String detail) {
+    logEvent(operation, MODE_SYNC, PHASE_IN_PROGRESS, detail, null);
+  }
+
+  @Override
+  public void logOperationFailedSync(String operation) {
+    logEvent(operation, MODE_SYNC, PHASE_FAILED, null, null);
+  }
+
+  @Override
+  public void logOperationFailedSync(String operation, Throwable throwable) {
+    logEvent(operation, MODE_SYNC, PHASE_FAILED, null, throwable);
+  }
+
+  @Override
+  public void logOperationFinishedSync(String operation) {
+    logEvent(operation, MODE_SYNC, PHASE_FINISHED, null, null);
+  }
+
+  @Override
+  public void logOperationStartedAsync(String operation) {
+    logEvent(operation, MODE_ASYNC, PHASE_STARTED, null, null);
+  }
+
+  @Override
+  public void logOperationInProgressAsync(String operation) {
+    // poll ticks are not transitions, async operations only emit their started, finished and failed events
+  }
+
+  @Override
+  public void logOperationFailedAsync(String operation) {
+    logEvent(operation, MODE_ASYNC, PHASE_FAILED, null, null);
+  }
+
+  @Override
+  public void logOperationFailedAsync(String operation, Throwable throwable) {
+    logEvent(operation, MODE_ASYNC, PHASE_FAILED, null, throwable);
+  }
+
+  @Override
+  public void logOperationFinishedAsync(String operation) {
+    logEvent(operation, MODE_ASYNC, PHASE_FINISHED, null, null);
+  }
+
+  private void logEvent(String operation, String mode, String phase, String detail, Throwable throwable) {
+    if (quiet || operation == null) {
+      return;
+    }
+    long time = System.currentTimeMillis();
+    Long started = null;
+    String status = STATUS_RUNNING;
+    if (phase.equals(PHASE_STARTED)) {
+      operationStarted.put(operation, time);
+    } else if (phase.equals(PHASE_IN_PROGRESS)) {
+      started = operationStarted.get(operation);
+    } else {
+      started = operationStarted.remove(operation);
+      status = phase.equals(PHASE_FINISHED) ? STATUS_SUCCEEDED : STATUS_FAILED;
+    }
+    OperationContext context = phase.equals(PHASE_FINISHED) || phase.equals(PHASE_FAILED) ? operationContext
+        .remove(operation) : operationContext.get(operation);
+    StringBuilder event = new StringBuilder(256);
+    event.append('{');
+    appendField(event, "time", time, false);
+    appendField(event, "tag", tag);
+    appendField(event, "operation", operation);
+    appendField(event, "mode", mode);
+    appendField(event, "phase", phase);
+    appendField(event, "status", status);
+    if (started != null) {
+      appendField(event, "duration", time - started, true);
+    }
+    if (context != null) {
+      appendField(event, "cluster", context.cluster);
+      appendField(event, "service", context.service);
+      if (context.command != null) {
+        appendField(event, "command", context.command, true);
+      }
+    }
+    appendField(event, "detail", detail);
+    appendField(event, "error", throwable == null ? null : throwable.toString());
+    event.append('}').append('\n');
+    writeEvent(event);
+  }
+
+  private void writeEvent(StringBuilder event) {
+    sink.write(event);
+  }
+
+  private static void appendField(StringBuilder event, String name, long value, boolean separator) {
+    if (separator) {
+      event.append(',');
+    }
+    event.append('"').append(name).append("\":").append(value);
+  }
+
+  private static void appendField(StringBuilder event, String name, String value) {
+    if (value != null) {
+      event.append(",\"").append(name).append("\":\"");
+      for (int i = 0; i < value.length(); i++) {
+        char character = value.charAt(i);
+        switch (character) {
+        case '"':
+          event.append("\\\"");
+          break;
+        case '\\':
+          event.append("\\\\");
+          break;
+        case '\n':
+          event.append("\\n");
+          break;
+        case '\r':
+          event.append("\\r");
+          break;
+        case '\t':
+          event.append("\\t");
+          break;
+        default:
+          if (character < 0x20) {
+            event.append(String.format("\\u%04x", (int) character));
+          } else {
+            event.append(character);
+          }
+        }
+      }
+      event.append('"');
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+public class CmServerLogJsonSink {
+
+  private static final String ENCODING = "UTF-8";
+
+  private static final int SOCKET_CONNECT_TIMEOUT_MS = 5000;
+
+  private final Object lock = new Object();
+
+  private final Writer writer;
+  private final Socket socket;
+  private boolean closed;
+
+  public CmServerLogJsonSink(Writer writer) {
+    this(writer, null);
+  }
+
+  public CmServerLogJsonSink(File file) throws IOException {
+    this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), ENCODING)), null);
+  }
+
+  public CmServerLogJsonSink(String host, int port) throws IOException {
+    this(connect(host, port));
+  }
+
+  private CmServerLogJsonSink(Socket socket) throws IOException {
+    this(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), ENCODING)), socket);
+  }
+
+  private CmServerLogJsonSink(Writer writer, Socket socket) {
+    this.writer = writer;
+    this.socket = socket;
+  }
+
+  // Target is either a host:port to stream events to, or a file to append events to
+  public static CmServerLogJsonSink getSink(String target) throws IOException {
+    int portIndex = target.lastIndexOf(':');
+    if (portIndex > 0 && target.indexOf('/') < 0 && target.substring(portIndex + 1).matches("[0-9]+")) {
+      return new CmServerLogJsonSink(target.substring(0, portIndex), Integer.parseInt(target.substring(portIndex + 1)));
+    }
+    return new CmServerLogJsonSink(new File(target));
+  }
+
+  public void write(CharSequence event) {
+    synchronized (lock) {
+      if (!closed) {
+        try {
+          writer.write(event.toString());
+          writer.flush();
+        } catch (IOException exception) {
+          // a broken consumer must never fail the operation being reported on
+          closed = true;
+        }
+      }
+    }
+  }
+
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      try {
+        writer.close();
+        if (socket != null) {
+          socket.close();
+        }
+      } catch (IOException exception) {
+        // ignore
+      }
+    }
+  }
+
+  private static Socket connect(String host, int port) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), SOCKET_CONNECT_TIMEOUT_MS);
+    } catch (IOException exception) {
+      socket.close();
+      throw exception;
+    }
+    return socket;
+  }
+
+}
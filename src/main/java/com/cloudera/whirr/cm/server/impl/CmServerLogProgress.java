@@ -0,0 +1,141 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Registry of in-flight async operations, their progress is multiplexed onto a single ticker thread
+public class CmServerLogProgress {
+
+  private static final long TICK_PERIOD_MS = 250;
+
+  private final long period;
+  private final int periodBackoffNumber;
+  private final long periodBackoffIncrement;
+
+  private final Map<Key, Operation> operations = new ConcurrentHashMap<Key, Operation>();
+  private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "cm-log-progress");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  private ScheduledFuture<?> tick;
+
+  public CmServerLogProgress(long period, int periodBackoffNumber, long periodBackoffIncrement) {
+    this.period = period;
+    this.periodBackoffNumber = periodBackoffNumber;
+    this.periodBackoffIncrement = periodBackoffIncrement;
+  }
+
+  public synchronized void start(CmServerLog logger, String operation) {
+    operations.put(new Key(logger, operation), new Operation(logger, operation));
+    if (tick == null) {
+      tick = ticker.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          tick();
+        }
+      }, 0, TICK_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized boolean stop(CmServerLog logger, String operation) {
+    boolean stopped = operations.remove(new Key(logger, operation)) != null;
+    if (operations.isEmpty() && tick != null) {
+      tick.cancel(false);
+      tick = null;
+    }
+    return stopped;
+  }
+
+  public boolean isRunning(CmServerLog logger, String operation) {
+    return operations.containsKey(new Key(logger, operation));
+  }
+
+  public int size() {
+    return operations.size();
+  }
+
+  private void tick() {
+    long now = System.currentTimeMillis();
+    for (Operation operation : operations.values()) {
+      if (now >= operation.due) {
+        try {
+          operation.logger.logOperationInProgressAsync(operation.operation);
+        } catch (RuntimeException exception) {
+          // a failing logger must not stall the progress of every other operation
+        }
+        if (operation.backoffNumber-- == 0) {
+          operation.period += periodBackoffIncrement;
+          operation.backoffNumber = periodBackoffNumber;
+        }
+        operation.due = now + operation.period;
+      }
+    }
+  }
+
+  private class Operation {
+    private final CmServerLog logger;
+    private final String operation;
+    private long period;
+    private int backoffNumber;
+    private long due;
+
+    public Operation(CmServerLog logger, String operation) {
+      this.logger = logger;
+      this.operation = operation;
+      this.period = CmServerLogProgress.this.period;
+      this.backoffNumber = periodBackoffNumber;
+      this.due = System.currentTimeMillis();
+    }
+  }
+
+  static class Key {
+    private final CmServerLog logger;
+    private final String operation;
+
+    public Key(CmServerLog logger, String operation) {
+      this.logger = logger;
+      this.operation = operation;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that instanceof Key) {
+        return logger == ((Key) that).logger
+            && (operation == null ? ((Key) that).operation == null : operation.equals(((Key) that).operation));
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(logger) + (operation == null ? 0 : operation.hashCode());
+    }
+  }
+
+}
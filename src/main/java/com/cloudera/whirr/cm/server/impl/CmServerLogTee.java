@@ -0,0 +1,175 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+public class CmServerLogTee extends CmServerLog {
+
+  private CmServerLog[] loggers;
+
+  public CmServerLogTee(CmServerLog... loggers) {
+    super();
+    this.loggers = loggers;
+  }
+
+  @Override
+  public void logOperation(String operation, String message) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperation(operation, message);
+    }
+  }
+
+  @Override
+  public void logOperationIntermediate(String operation, String message) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationIntermediate(operation, message);
+    }
+  }
+
+  @Override
+  public void logOperationStackTrace(String operation, Throwable throwable) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationStackTrace(operation, throwable);
+    }
+  }
+
+  @Override
+  public void logOperationContext(String operation, String cluster, String service, Long command) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationContext(operation, cluster, service, command);
+    }
+  }
+
+  @Override
+  public void logOperationEstimate(String operation, long estimate, long threshold) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationEstimate(operation, estimate, threshold);
+    }
+  }
+
+  @Override
+  public void logOperationMetric(String operation, String metric, long value) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationMetric(operation, metric, value);
+    }
+  }
+
+  @Override
+  protected void logMessage(String message) {
+    for (CmServerLog logger : loggers) {
+      logger.logMessage(message);
+    }
+  }
+
+  @Override
+  protected void logMessageIntermediate(String message) {
+    for (CmServerLog logger : loggers) {
+      logger.logMessageIntermediate(message);
+    }
+  }
+
+  @Override
+  public void logOperation(String operation, CmServerLogSyncCommand command) throws Exception {
+    logOperation(operation, command, 0);
+  }
+
+  private void logOperation(final String operation, final CmServerLogSyncCommand command, final int index)
+      throws Exception {
+    if (index == loggers.length) {
+      command.execute();
+    } else {
+      // nest each logger around the next so the command itself is only executed once
+      loggers[index].logOperation(operation, new CmServerLogSyncCommand() {
+        @Override
+        public void execute() throws Exception {
+          logOperation(operation, command, index + 1);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void logOperationStartedSync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationStartedSync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationInProgressSync(String operation, String detail) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationInProgressSync(operation, detail);
+    }
+  }
+
+  @Override
+  public void logOperationFailedSync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFailedSync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationFailedSync(String operation, Throwable throwable) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFailedSync(operation, throwable);
+    }
+  }
+
+  @Override
+  public void logOperationFinishedSync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFinishedSync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationStartedAsync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationStartedAsync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationInProgressAsync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationInProgressAsync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationFailedAsync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFailedAsync(operation);
+    }
+  }
+
+  @Override
+  public void logOperationFailedAsync(String operation, Throwable throwable) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFailedAsync(operation, throwable);
+    }
+  }
+
+  @Override
+  public void logOperationFinishedAsync(String operation) {
+    for (CmServerLog logger : loggers) {
+      logger.logOperationFinishedAsync(operation);
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+#
+# Licensed to Cloudera, Inc. under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# Cloudera, Inc. licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+set -x
+
+# Third party artefacts are fetched once into a node local directory and verified there, the artefact cache (an HTTP
+# mirror or a directory, eg a shared mount) is tried before the artefact's origin, a writable cache directory being
+# populated with verified downloads from the origin so that other nodes and clusters need not go external again
+ARTEFACT_CACHE=
+ARTEFACT_DIR=/var/cache/whirr-cm
+ARTEFACT_FILE=
+JDK_HOME=
+
+function artefact_helpers() {
+  local OPTIND
+  local OPTARG
+  ARTEFACT_CACHE=
+  while getopts "c:d:" OPTION; do
+    case $OPTION in
+      c)
+        ARTEFACT_CACHE="${OPTARG%/}"
+        ;;
+      d)
+        ARTEFACT_DIR="$OPTARG"
+        ;;
+    esac
+  done
+}
+
+function artefact_verify() {
+  [ -s "$1" ] && ( [ -z "$2" ] || [ "$(sha1sum "$1" 2> /dev/null | awk '{print $1}')" == "$2" ] )
+}
+
+function artefact_download() {
+  case "$1" in
+    http://*|https://*|ftp://*)
+      curl -sSfL --retry 3 --connect-timeout 30 -o "$2" "$1"
+      ;;
+    *)
+      cp "${1#file://}" "$2"
+      ;;
+  esac
+}
+
+function fetch_artefact() {
+  ARTEFACT_URL="$1"
+  ARTEFACT_SHA1="$2"
+  ARTEFACT=$(basename "$ARTEFACT_URL")
+  ARTEFACT_FILE="$ARTEFACT_DIR/$ARTEFACT"
+  mkdir -p "$ARTEFACT_DIR"
+  if artefact_verify "$ARTEFACT_FILE" "$ARTEFACT_SHA1"; then
+    return 0
+  fi
+  ARTEFACT_MISMATCH=0
+  for ARTEFACT_SOURCE in ${ARTEFACT_CACHE:+"$ARTEFACT_CACHE/$ARTEFACT"} "$ARTEFACT_URL"; do
+    rm -rf "$ARTEFACT_FILE.part"
+    if artefact_download "$ARTEFACT_SOURCE" "$ARTEFACT_FILE.part" && artefact_verify "$ARTEFACT_FILE.part" "$ARTEFACT_SHA1"; then
+      mv "$ARTEFACT_FILE.part" "$ARTEFACT_FILE"
+      ARTEFACT_CACHE_DIR="${ARTEFACT_CACHE#file://}"
+      if [ "$ARTEFACT_SOURCE" == "$ARTEFACT_URL" ] && [ -d "$ARTEFACT_CACHE_DIR" ] && [ -w "$ARTEFACT_CACHE_DIR" ]; then
+        cp "$ARTEFACT_FILE" "$ARTEFACT_CACHE_DIR/$ARTEFACT.$$" && mv "$ARTEFACT_CACHE_DIR/$ARTEFACT.$$" "$ARTEFACT_CACHE_DIR/$ARTEFACT"
+      fi
+      return 0
+    fi
+    if [ -s "$ARTEFACT_FILE.part" ] && [ ! -z "$ARTEFACT_SHA1" ]; then
+      ARTEFACT_MISMATCH=1
+    fi
+    echo "Artefact [$ARTEFACT] could not be fetched and verified from [$ARTEFACT_SOURCE]"
+  done
+  rm -rf "$ARTEFACT_FILE.part"
+  # a configured checksum that does not match is reported apart from an unreachable artefact, callers must not fall
+  # back to an unverified alternative in that case
+  if [ $ARTEFACT_MISMATCH -eq 1 ]; then
+    return 2
+  fi
+  return 1
+}
+
+function artefact_install_jdk() {
+  JDK_ARCHIVE="$1"
+  JDK_DIR="$2"
+  mkdir -p "$JDK_DIR"
+  case "$JDK_ARCHIVE" in
+    *.bin)
+      JDK_WORKING_DIR=$(pwd)
+      cd "$JDK_DIR"
+      cp "$JDK_ARCHIVE" jdk-install.bin
+      chmod +x jdk-install.bin
+      mv /bin/more /bin/more.no
+      yes | ./jdk-install.bin -noregister
+      mv /bin/more.no /bin/more
+      rm -f *.rpm jdk-install.bin
+      cd "$JDK_WORKING_DIR"
+      ;;
+    *.tar.gz|*.tgz|*.tar)
+      tar xf "$JDK_ARCHIVE" -C "$JDK_DIR"
+      ;;
+    *)
+      echo "JDK archive [$JDK_ARCHIVE] is not a .bin or .tar.gz"
+      return 1
+      ;;
+  esac
+  JDK_HOME=$(ls -dt "$JDK_DIR"/j* | head -n 1)
+}
@@ -40,6 +40,9 @@ function configure_cm_agent() {
 	    ;;
 	  esac
   done
+  if image_installed parcels; then
+    CM_AGENT_PARCEL_DIR=$(image_parcels_dir)
+  fi
   sed -i -e "s|server_host=.*|server_host=$CM_SERVER_HOST|" /etc/cloudera-scm-agent/config.ini
   sed -i -e "s|server_port=.*|server_port=$CM_SERVER_PORT|" /etc/cloudera-scm-agent/config.ini
   sed -i -e "s|# log_file=.*|log_file=$CM_AGENT_LOG_FILE|" /etc/cloudera-scm-agent/config.ini
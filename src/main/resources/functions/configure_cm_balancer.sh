@@ -17,40 +17,116 @@
 
 set -x
 
+# The haproxy config is generated in full on every run, services are given as <name>;<port>;<check>;<servers>, the
+# check being either tcp or the path of an HTTP health check, and the servers a comma separated list of host:port
 function configure_cm_balancer() {
   local OPTIND
   local OPTARG
-  CM_BALANCER_BIND_PORT=9090
-  CM_BALANCER_HOSTS=
-  while getopts "b:h:" OPTION; do
+  CM_BALANCER_MAXCONN=4096
+  CM_BALANCER_SERVER_MAXCONN=512
+  CM_BALANCER_TIMEOUT_CONNECT=5s
+  CM_BALANCER_TIMEOUT_TCP=1h
+  CM_BALANCER_TIMEOUT_HTTP=5m
+  CM_BALANCER_CHECK_INTERVAL=5s
+  CM_BALANCER_SERVICES=()
+  while getopts "c:m:t:p:h:i:s:" OPTION; do
     case $OPTION in
-      b)
-        CM_BALANCER_BIND_PORT="$OPTARG"
+      c)
+        CM_BALANCER_MAXCONN="$OPTARG"
+        ;;
+      m)
+        CM_BALANCER_SERVER_MAXCONN="$OPTARG"
+        ;;
+      t)
+        CM_BALANCER_TIMEOUT_CONNECT="$OPTARG"
+        ;;
+      p)
+        CM_BALANCER_TIMEOUT_TCP="$OPTARG"
         ;;
       h)
-        CM_BALANCER_HOSTS="$OPTARG"
+        CM_BALANCER_TIMEOUT_HTTP="$OPTARG"
+        ;;
+      i)
+        CM_BALANCER_CHECK_INTERVAL="$OPTARG"
+        ;;
+      s)
+        CM_BALANCER_SERVICES+=("$OPTARG")
         ;;
     esac
   done
-  export IFS=, 
-  CM_BALANCER_HOSTS_ARRAY=($CM_BALANCER_HOSTS)
-  if which dpkg &> /dev/null; then
-    retry_apt_get update
-    retry_apt_get -y install haproxy 
-  elif which rpm &> /dev/null; then
-    retry_yum install -y haproxy
+  if ! which haproxy &> /dev/null; then
+    install_packages haproxy
   fi
-  CM_BALANCER_CONFIG='
+  cat > /etc/haproxy/haproxy.cfg.whirr <<END
+global
+  log 127.0.0.1 local0
+  maxconn $CM_BALANCER_MAXCONN
+  user haproxy
+  group haproxy
+  daemon
 
-  listen '$(hostname)' :'$CM_BALANCER_BIND_PORT'
-    mode tcp
-    option tcplog
-    balance leastconn
-'
-  for i in "${!CM_BALANCER_HOSTS_ARRAY[@]}"; do 
-    CM_BALANCER_CONFIG=$CM_BALANCER_CONFIG'
-    server host'$i' '${CM_BALANCER_HOSTS_ARRAY[$i]}
+defaults
+  log global
+  retries 3
+  option redispatch
+  maxconn $CM_BALANCER_MAXCONN
+  timeout connect $CM_BALANCER_TIMEOUT_CONNECT
+  timeout check $CM_BALANCER_TIMEOUT_CONNECT
+END
+  for CM_BALANCER_SERVICE in "${CM_BALANCER_SERVICES[@]}"; do
+    IFS=';' read -r SERVICE_NAME SERVICE_PORT SERVICE_CHECK SERVICE_SERVERS <<< "$CM_BALANCER_SERVICE"
+    echo "" >> /etc/haproxy/haproxy.cfg.whirr
+    echo "listen $SERVICE_NAME :$SERVICE_PORT" >> /etc/haproxy/haproxy.cfg.whirr
+    if [ "$SERVICE_CHECK" == "tcp" ]; then
+      cat >> /etc/haproxy/haproxy.cfg.whirr <<END
+  mode tcp
+  option tcplog
+  option tcpka
+  balance leastconn
+  timeout client $CM_BALANCER_TIMEOUT_TCP
+  timeout server $CM_BALANCER_TIMEOUT_TCP
+END
+    else
+      cat >> /etc/haproxy/haproxy.cfg.whirr <<END
+  mode http
+  option httplog
+  option httpchk GET $SERVICE_CHECK
+  balance leastconn
+  timeout client $CM_BALANCER_TIMEOUT_HTTP
+  timeout server $CM_BALANCER_TIMEOUT_HTTP
+END
+    fi
+    SERVER_INDEX=0
+    for SERVICE_SERVER in $(echo "$SERVICE_SERVERS" | tr "," "\n"); do
+      echo "  server $SERVICE_NAME$SERVER_INDEX $SERVICE_SERVER check inter $CM_BALANCER_CHECK_INTERVAL fall 3 rise 2 maxconn $CM_BALANCER_SERVER_MAXCONN" >> /etc/haproxy/haproxy.cfg.whirr
+      SERVER_INDEX=$((SERVER_INDEX+1))
+    done
   done
-  echo $CM_BALANCER_CONFIG >> /etc/haproxy/haproxy.cfg
-  service haproxy start
+  # with no backends left there is nothing to listen on and haproxy rejects a config without listeners, the balancer
+  # is stopped instead of being left to front the previous backends
+  if [ ${#CM_BALANCER_SERVICES[@]} -eq 0 ]; then
+    echo "No balanced services have backends, stopping haproxy"
+    mv /etc/haproxy/haproxy.cfg.whirr /etc/haproxy/haproxy.cfg
+    if [ -f /etc/default/haproxy ]; then
+      sed -i -e "s/^ENABLED=.*/ENABLED=0/" /etc/default/haproxy
+    fi
+    if service haproxy status &> /dev/null; then
+      service haproxy stop
+    fi
+    return 0
+  fi
+  if ! haproxy -c -f /etc/haproxy/haproxy.cfg.whirr; then
+    echo "Generated haproxy config is invalid, keeping the current config"
+    return 1
+  fi
+  mv /etc/haproxy/haproxy.cfg.whirr /etc/haproxy/haproxy.cfg
+  if [ -f /etc/default/haproxy ]; then
+    sed -i -e "s/^ENABLED=.*/ENABLED=1/" /etc/default/haproxy
+  fi
+  # reloads hand the listening sockets over to a new haproxy process, in flight connections are left to finish
+  if service haproxy status &> /dev/null; then
+    service haproxy reload
+  else
+    service haproxy start
+  fi
 }
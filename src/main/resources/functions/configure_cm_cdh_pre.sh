@@ -22,7 +22,11 @@ function configure_cm_cdh_pre() {
   local OPTARG
   CM_CDH_ROLE=
   CM_CDH_DIRS="/data"
-  while getopts "r:d:" OPTION; do
+  CM_CDH_EXT_URL=http://extjs.com/deploy/ext-2.2.zip
+  CM_CDH_EXT_SHA1=
+  CM_CDH_JDK_URL=
+  CM_CDH_JDK_SHA1=
+  while getopts "r:d:e:x:j:k:" OPTION; do
     case $OPTION in
       r)
         CM_CDH_ROLE="$OPTARG"
@@ -30,6 +34,18 @@ function configure_cm_cdh_pre() {
       d)
         CM_CDH_DIRS="$OPTARG"
         ;;
+      e)
+        CM_CDH_EXT_URL="$OPTARG"
+        ;;
+      x)
+        CM_CDH_EXT_SHA1="$OPTARG"
+        ;;
+      j)
+        CM_CDH_JDK_URL="$OPTARG"
+        ;;
+      k)
+        CM_CDH_JDK_SHA1="$OPTARG"
+        ;;
     esac
   done
   export IFS=, 
@@ -46,15 +62,33 @@ function configure_cm_cdh_pre() {
     REPOCDH=${REPOCDH:-cdh5}
     CDH_MAJOR_VERSION=$(echo $REPOCDH | sed -e 's/cdh\([0-9]\).*/\1/')
     if [ $CDH_MAJOR_VERSION -le 4 ]; then
+      CM_CDH_JDK_FETCHED=1
+      if [ ! -z "$CM_CDH_JDK_URL" ]; then
+        fetch_artefact "$CM_CDH_JDK_URL" "$CM_CDH_JDK_SHA1"
+        CM_CDH_JDK_FETCHED=$?
+      fi
+      if [ $CM_CDH_JDK_FETCHED -eq 2 ]; then
+        echo "Impala JDK archive [$CM_CDH_JDK_URL] failed checksum verification"
+        exit 1
+      fi
       if which dpkg &> /dev/null; then
-        retry_apt_get update
-        retry_apt_get -y install oracle-j2sdk1.6
+        if [ $CM_CDH_JDK_FETCHED -eq 0 ]; then
+          artefact_install_jdk "$ARTEFACT_FILE" /usr/lib/jvm
+          JAVA_HOME=$JDK_HOME
+        else
+          install_packages oracle-j2sdk1.6
+        fi
         rm -rf /usr/lib/jvm/default
         ln -s $JAVA_HOME /usr/lib/jvm/default 
         update-alternatives --install /usr/bin/java java $JAVA_HOME/bin/java 17000
         update-alternatives --set java $JAVA_HOME/bin/java
       elif which rpm &> /dev/null; then
-        retry_yum install -y jdk
+        if [ $CM_CDH_JDK_FETCHED -eq 0 ]; then
+          artefact_install_jdk "$ARTEFACT_FILE" /usr/java
+          JAVA_HOME=$JDK_HOME
+        else
+          retry_yum install -y jdk
+        fi
         rm -rf /usr/java/default
         ln -s $JAVA_HOME /usr/java/default  
         alternatives --install /usr/bin/java java $JAVA_HOME/bin/java 17000
@@ -63,9 +97,7 @@ function configure_cm_cdh_pre() {
     fi
   elif [ "$CM_CDH_ROLE" = "cm-cdh-oozie" ]; then
     if which dpkg &> /dev/null; then
-      export DEBIAN_FRONTEND=noninteractive
-      retry_apt_get update
-      retry_apt_get -q -y install unzip
+      install_packages unzip
     elif which rpm &> /dev/null; then
       retry_yum install -y unzip
     fi
@@ -74,7 +106,10 @@ function configure_cm_cdh_pre() {
       chmod 777 /var/lib/oozie
       ln -s /usr/share/java/mysql-connector-java.jar /var/lib/oozie/mysql-connector-java.jar
     fi
-    wget -nv http://extjs.com/deploy/ext-2.2.zip
-    unzip -q ext-2.2.zip -d /var/lib/oozie
+    if fetch_artefact "$CM_CDH_EXT_URL" "$CM_CDH_EXT_SHA1"; then
+      unzip -q -o "$ARTEFACT_FILE" -d /var/lib/oozie
+    else
+      echo "Oozie web console library [$CM_CDH_EXT_URL] unavailable, the console will be disabled"
+    fi
   fi
 }
@@ -28,23 +28,79 @@ function wait_cm_server() {
   return 1
 }
 
+function seed_cm_parcels() {
+  PARCEL_CACHE="${1%/}"
+  PARCEL_REPO="$2"
+  if which dpkg &> /dev/null; then
+    PARCEL_DISTRO=$(lsb_release -cs)
+  elif which rpm &> /dev/null; then
+    PARCEL_DISTRO=el$(sed -e 's/.* release \([0-9]*\).*/\1/' /etc/redhat-release)
+  fi
+  case "$PARCEL_CACHE" in
+    http://*|https://*)
+      PARCELS=$(curl -sSf "$PARCEL_CACHE/manifest.json" | grep -o '"parcelName" *: *"[^"]*"' | sed -e 's/.*"\([^"]*\)"$/\1/')
+      ;;
+    *)
+      PARCEL_CACHE="${PARCEL_CACHE#file://}"
+      PARCELS=$(ls "$PARCEL_CACHE" 2> /dev/null | grep '\.parcel$')
+      ;;
+  esac
+  for PARCEL in $(echo "$PARCELS" | grep -- "-$PARCEL_DISTRO\.parcel$"); do
+    if [ -d "$PARCEL_CACHE" ]; then
+      PARCEL_HASH=$(cat "$PARCEL_CACHE/$PARCEL.sha" 2> /dev/null | awk '{print $1}')
+    else
+      PARCEL_HASH=$(curl -sSf "$PARCEL_CACHE/$PARCEL.sha" | awk '{print $1}')
+    fi
+    if [ -z "$PARCEL_HASH" ]; then
+      echo "Parcel [$PARCEL] has no checksum in cache [$PARCEL_CACHE], skipping"
+      continue
+    fi
+    if [ -f "$PARCEL_REPO/$PARCEL" ] && [ "$(cat "$PARCEL_REPO/$PARCEL.sha" 2> /dev/null)" == "$PARCEL_HASH" ]; then
+      echo "Parcel [$PARCEL] already present in [$PARCEL_REPO]"
+      continue
+    fi
+    if [ -d "$PARCEL_CACHE" ]; then
+      cp "$PARCEL_CACHE/$PARCEL" "$PARCEL_REPO/$PARCEL.part"
+    else
+      curl -sSf -o "$PARCEL_REPO/$PARCEL.part" "$PARCEL_CACHE/$PARCEL"
+    fi
+    if [ "$(sha1sum "$PARCEL_REPO/$PARCEL.part" 2> /dev/null | awk '{print $1}')" == "$PARCEL_HASH" ]; then
+      mv "$PARCEL_REPO/$PARCEL.part" "$PARCEL_REPO/$PARCEL"
+      echo "$PARCEL_HASH" > "$PARCEL_REPO/$PARCEL.sha"
+    else
+      echo "Parcel [$PARCEL] failed checksum verification, leaving it to be downloaded by CM"
+      rm -rf "$PARCEL_REPO/$PARCEL.part"
+    fi
+  done
+  chown -R cloudera-scm.cloudera-scm "$PARCEL_REPO"
+}
+
 function configure_cm_server() {
   local OPTIND
   local OPTARG
   TYPE=mysql
-  while getopts "t:" OPTION; do
+  PARCEL_REPO=/data0/manager/parcels/parcel-repository
+  PARCEL_CACHE=
+  while getopts "t:p:c:" OPTION; do
     case $OPTION in
 	  t)
 	    TYPE="$OPTARG"
 	    ;;
+	  p)
+	    PARCEL_REPO="$OPTARG"
+	    ;;
+	  c)
+	    PARCEL_CACHE="$OPTARG"
+	    ;;
     esac
   done
-  mkdir -p /data0/manager/parcels/parcel-repository
-  chown cloudera-scm.cloudera-scm /data0/manager/parcels/parcel-repository
+  mkdir -p "$PARCEL_REPO"
+  chown cloudera-scm.cloudera-scm "$PARCEL_REPO"
+  if [ ! -z "$PARCEL_CACHE" ]; then
+    seed_cm_parcels "$PARCEL_CACHE" "$PARCEL_REPO"
+  fi
   if which dpkg &> /dev/null; then
-    export DEBIAN_FRONTEND=noninteractive
-    retry_apt_get update
-    retry_apt_get -q -y install expect
+    install_packages expect
   elif which rpm &> /dev/null; then
     retry_yum install -y expect
   fi
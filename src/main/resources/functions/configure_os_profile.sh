@@ -0,0 +1,139 @@
+#
+# Licensed to Cloudera, Inc. under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# Cloudera, Inc. licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+set -x
+
+# Settings that do not survive a reboot are collected into a boot script run from rc.local
+OS_PROFILE_BOOT=/etc/whirr-cm/os-profile.sh
+
+function os_profile_sys() {
+  if [ -f $1 ]; then
+    echo "$2" > $1
+    echo "[ -f $1 ] && echo \"$2\" > $1" >> $OS_PROFILE_BOOT
+  fi
+}
+
+# Choice files, such as those for THP and the IO scheduler, only accept one of the values they list
+function os_profile_sys_choice() {
+  if grep -qw "$2" $1 2> /dev/null; then
+    os_profile_sys $1 $2
+  fi
+}
+
+function os_profile_sysctl() {
+  sysctl -w "$1=$2"
+  sed -i -e "/^$1 *=/d" /etc/sysctl.conf
+  echo "$1 = $2" >> /etc/sysctl.conf
+}
+
+function os_profile_cpu_mask() {
+  MASK=
+  CPUS_REMAINING=$1
+  while [ $CPUS_REMAINING -gt 0 ]; do
+    CPUS_GROUP=$(( CPUS_REMAINING > 32 ? 32 : CPUS_REMAINING ))
+    MASK=$(printf "%x" $(( (1 << CPUS_GROUP) - 1 )))${MASK:+,}$MASK
+    CPUS_REMAINING=$(( CPUS_REMAINING - CPUS_GROUP ))
+  done
+  echo $MASK
+}
+
+function configure_os_profile() {
+  local OPTIND
+  local OPTARG
+  OS_SWAPPINESS=1
+  OS_THP=never
+  OS_NOFILE=65536
+  OS_NPROC=65536
+  OS_NET_BUFFER=16777216
+  OS_IO_SCHEDULER=deadline
+  OS_RPS=true
+  OS_USERS=
+  OS_MOUNTS=
+  while getopts "s:t:f:p:b:i:r:u:d:" OPTION; do
+    case $OPTION in
+      s)
+        OS_SWAPPINESS="$OPTARG"
+        ;;
+      t)
+        OS_THP="$OPTARG"
+        ;;
+      f)
+        OS_NOFILE="$OPTARG"
+        ;;
+      p)
+        OS_NPROC="$OPTARG"
+        ;;
+      b)
+        OS_NET_BUFFER="$OPTARG"
+        ;;
+      i)
+        OS_IO_SCHEDULER="$OPTARG"
+        ;;
+      r)
+        OS_RPS="$OPTARG"
+        ;;
+      u)
+        OS_USERS="$OPTARG"
+        ;;
+      d)
+        OS_MOUNTS="$OPTARG"
+        ;;
+    esac
+  done
+  mkdir -p $(dirname $OS_PROFILE_BOOT)
+  echo "#!/bin/sh" > $OS_PROFILE_BOOT
+  chmod +x $OS_PROFILE_BOOT
+  for THP_DIR in /sys/kernel/mm/transparent_hugepage /sys/kernel/mm/redhat_transparent_hugepage; do
+    os_profile_sys_choice $THP_DIR/enabled $OS_THP
+    os_profile_sys_choice $THP_DIR/defrag $OS_THP
+  done
+  os_profile_sysctl vm.swappiness $OS_SWAPPINESS
+  os_profile_sysctl net.core.rmem_max $OS_NET_BUFFER
+  os_profile_sysctl net.core.wmem_max $OS_NET_BUFFER
+  os_profile_sysctl net.ipv4.tcp_rmem "4096 87380 $OS_NET_BUFFER"
+  os_profile_sysctl net.ipv4.tcp_wmem "4096 65536 $OS_NET_BUFFER"
+  os_profile_sysctl net.ipv4.tcp_low_latency 1
+  rm -f /etc/security/limits.d/whirr-cm.conf
+  for OS_USER in $(echo "$OS_USERS" | tr "," "\n"); do
+    echo "$OS_USER - nofile $OS_NOFILE" >> /etc/security/limits.d/whirr-cm.conf
+    echo "$OS_USER - nproc $OS_NPROC" >> /etc/security/limits.d/whirr-cm.conf
+  done
+  if [ "$OS_RPS" == "true" ]; then
+    OS_CPU_MASK=$(os_profile_cpu_mask $(grep -c ^processor /proc/cpuinfo))
+    for OS_QUEUE in $(ls -d /sys/class/net/*/queues/rx-* /sys/class/net/*/queues/tx-* 2> /dev/null | grep -v "/lo/"); do
+      os_profile_sys $OS_QUEUE/rps_cpus $OS_CPU_MASK
+      os_profile_sys $OS_QUEUE/xps_cpus $OS_CPU_MASK
+    done
+  fi
+  for OS_MOUNT in $(echo "$OS_MOUNTS" | tr "," "\n"); do
+    OS_PARTITION=$(df -P $OS_MOUNT 2> /dev/null | awk 'NR == 2 {print $1}')
+    OS_DEVICE=$(lsblk -no pkname $OS_PARTITION 2> /dev/null | head -n 1)
+    if [ -z "$OS_DEVICE" ]; then
+      OS_DEVICE=$(basename "$OS_PARTITION" | sed -e 's|[0-9]*$||')
+    fi
+    if [ ! -z "$OS_DEVICE" ]; then
+      os_profile_sys_choice /sys/block/$OS_DEVICE/queue/scheduler $OS_IO_SCHEDULER
+    fi
+  done
+  if [ -f /etc/rc.local ] && ! grep -q "$OS_PROFILE_BOOT" /etc/rc.local; then
+    if grep -q "^exit 0" /etc/rc.local; then
+      sed -i -e "s|^exit 0|$OS_PROFILE_BOOT\nexit 0|" /etc/rc.local
+    else
+      echo "$OS_PROFILE_BOOT" >> /etc/rc.local
+    fi
+  fi
+}
@@ -0,0 +1,102 @@
+#
+# Licensed to Cloudera, Inc. under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# Cloudera, Inc. licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+set -x
+
+# Components found on a pre-baked image are not installed again, an image manifest of <component>=<version>
+# lines is authoritative when present, otherwise the image is probed for each component, components being one of
+# cm, cm_java, cm_agent, cm_server, mysql and parcels (the version of which is the image's parcel directory)
+IMAGE_PREBAKED=
+IMAGE_MANIFEST=/etc/whirr-cm/image.manifest
+
+function image_helpers() {
+  local OPTIND
+  local OPTARG
+  IMAGE_PREBAKED=
+  while getopts "pm:" OPTION; do
+    case $OPTION in
+      p)
+        IMAGE_PREBAKED=1
+        ;;
+      m)
+        IMAGE_MANIFEST="$OPTARG"
+        ;;
+    esac
+  done
+}
+
+function image_package_version() {
+  if which dpkg &> /dev/null; then
+    dpkg-query -W -f='${Status} ${Version}\n' "$1" 2> /dev/null | grep "install ok installed" | awk '{print $4}'
+  elif which rpm &> /dev/null; then
+    rpm -q --qf '%{VERSION}\n' "$1" 2> /dev/null | grep -v "not installed"
+  fi
+}
+
+function image_parcels_dir() {
+  if [ -f "$IMAGE_MANIFEST" ]; then
+    grep "^parcels=" "$IMAGE_MANIFEST" | tail -n 1 | cut -d'=' -f2-
+  elif ls -d /opt/cloudera/parcels/*/meta/parcel.json &> /dev/null; then
+    echo /opt/cloudera/parcels
+  fi
+}
+
+function image_installed() {
+  COMPONENT="$1"
+  COMPONENT_VERSION="$2"
+  if [ "$IMAGE_PREBAKED" != "1" ]; then
+    return 1
+  fi
+  if [ -f "$IMAGE_MANIFEST" ]; then
+    IMAGE_VERSION=$(grep "^$COMPONENT=" "$IMAGE_MANIFEST" | tail -n 1 | cut -d'=' -f2-)
+  else
+    case "$COMPONENT" in
+      cm)
+        REPOCM=${REPOCM:-cm5}
+        if [ -f /etc/apt/sources.list.d/cloudera-$REPOCM.list ] || [ -f /etc/yum.repos.d/cloudera-$REPOCM.repo ]; then
+          IMAGE_VERSION=$(echo $REPOCM | sed -e 's/cm\([0-9][0-9]*\)/\1/')
+        fi
+        ;;
+      cm_java)
+        if [ -x /usr/java/default/bin/java ] || [ -x /usr/lib/jvm/default/bin/java ]; then
+          IMAGE_VERSION=$(ls -d /usr/java/default /usr/lib/jvm/default 2> /dev/null | head -n 1)
+        fi
+        ;;
+      cm_agent)
+        IMAGE_VERSION=$(image_package_version cloudera-manager-agent)
+        ;;
+      cm_server)
+        IMAGE_VERSION=$(image_package_version cloudera-manager-server)
+        ;;
+      mysql)
+        IMAGE_VERSION=$(image_package_version mysql-server-5.5)$(image_package_version mysql-server)
+        ;;
+      parcels)
+        IMAGE_VERSION=$(image_parcels_dir)
+        ;;
+    esac
+  fi
+  if [ -z "$IMAGE_VERSION" ]; then
+    return 1
+  fi
+  if [ ! -z "$COMPONENT_VERSION" ] && [ "${IMAGE_VERSION#$COMPONENT_VERSION}" == "$IMAGE_VERSION" ]; then
+    echo "Image component [$COMPONENT] version [$IMAGE_VERSION] does not match [$COMPONENT_VERSION], installing"
+    return 1
+  fi
+  echo "Image component [$COMPONENT] version [$IMAGE_VERSION] already installed"
+  return 0
+}
@@ -16,34 +16,31 @@
 #
 set -x
 
+# Installs the packages passed as arguments, as computed from the roles on the instance,
+# or the full CDH stack when called without arguments
 function install_cdh_packages() {
+  CDH_PACKAGES="$@"
+  if [ -z "$CDH_PACKAGES" ]; then
+    CDH_PACKAGES="bigtop-utils bigtop-jsvc bigtop-tomcat hadoop hadoop-hdfs hadoop-httpfs hadoop-mapreduce hadoop-yarn hadoop-client hadoop-0.20-mapreduce hue-plugins hbase hive oozie oozie-client pig zookeeper hue sqoop flume-ng flume-ng-agent"
+    if which rpm &> /dev/null && ! which dpkg &> /dev/null; then
+      CDH_PACKAGES="$CDH_PACKAGES impala impala-shell"
+    fi
+  fi
   if which dpkg &> /dev/null; then
-    retry_apt_get -y install bigtop-utils bigtop-jsvc bigtop-tomcat hadoop hadoop-hdfs hadoop-httpfs hadoop-mapreduce hadoop-yarn hadoop-client hadoop-0.20-mapreduce hue-plugins hbase hive oozie oozie-client pig zookeeper hue sqoop flume-ng flume-ng-agent
-    if ls /etc/init.d/hadoop-* &> /dev/null; then
-      for SERVICE_SCRIPT in /etc/init.d/hadoop-*; do
+    install_packages $CDH_PACKAGES
+    for SERVICE_SCRIPT in /etc/init.d/hadoop-* /etc/init.d/hue /etc/init.d/flume-ng-agent /etc/init.d/oozie; do
+      if [ -e $SERVICE_SCRIPT ]; then
         service $(basename $SERVICE_SCRIPT) stop
         update-rc.d -f $(basename $SERVICE_SCRIPT) remove
-      done
-    fi    
-    service hue stop
-    update-rc.d -f hue remove
-    service flume-ng-agent stop
-    update-rc.d -f flume-ng-agent remove
-    service oozie stop
-    update-rc.d -f oozie remove
+      fi
+    done
   elif which rpm &> /dev/null; then
-    retry_yum install -y bigtop-utils bigtop-jsvc bigtop-tomcat hadoop hadoop-hdfs hadoop-httpfs hadoop-mapreduce hadoop-yarn hadoop-client hadoop-0.20-mapreduce hue-plugins hbase hive oozie oozie-client pig zookeeper impala impala-shell hue sqoop flume-ng flume-ng-agent
-    if ls /etc/init.d/hadoop-* &> /dev/null; then
-      for SERVICE_SCRIPT in /etc/init.d/hadoop-*; do
+    retry_yum install -y $CDH_PACKAGES
+    for SERVICE_SCRIPT in /etc/init.d/hadoop-* /etc/init.d/hue /etc/init.d/flume-ng-agent /etc/init.d/oozie; do
+      if [ -e $SERVICE_SCRIPT ]; then
         service $(basename $SERVICE_SCRIPT) stop
         chkconfig $(basename $SERVICE_SCRIPT) off
-      done
-    fi
-    service hue stop
-    chkconfig hue off
-    service flume-ng-agent stop
-    chkconfig flume-ng-agent off
-    service oozie stop
-    chkconfig oozie off  
+      fi
+    done
   fi
 }
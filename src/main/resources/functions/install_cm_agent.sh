@@ -28,9 +28,11 @@ function install_cm_agent() {
       CM_VERSION_PACKAGE="-"$CM_VERSION
     fi    
   fi
+  if image_installed cm_agent "$CM_VERSION"; then
+    return 0
+  fi
   if which dpkg &> /dev/null; then
-    retry_apt_get update
-    retry_apt_get -y install "cloudera-manager-agent$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
+    install_packages "cloudera-manager-agent$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
   elif which rpm &> /dev/null; then
     retry_yum install -y "cloudera-manager-agent$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
   fi
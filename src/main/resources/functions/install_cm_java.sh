@@ -18,6 +18,20 @@
 set -x
 
 function install_cm_java() {
+  local OPTIND
+  local OPTARG
+  JDK_URL="$JDK_INSTALL_URL"
+  JDK_SHA1=
+  while getopts "u:s:" OPTION; do
+    case $OPTION in
+      u)
+        JDK_URL="$OPTARG"
+        ;;
+      s)
+        JDK_SHA1="$OPTARG"
+        ;;
+    esac
+  done
 
   if [ "$INSTALL_JAVA_DONE" == "1" ]; then
     return;
@@ -28,38 +42,39 @@ function install_cm_java() {
   elif which rpm &> /dev/null; then
     JDK_INSTALL_PATH=/usr/java
   fi
+
+  if image_installed cm_java; then
+    export JAVA_HOME=$(readlink -f $JDK_INSTALL_PATH/default)
+    INSTALL_JAVA_DONE=1
+    return;
+  fi
   
   WORKING_DIR=$(pwd)
   mkdir -p $JDK_INSTALL_PATH
   cd $JDK_INSTALL_PATH
 
-  if [ ! -z "${JDK_INSTALL_URL+xxx}" ]; then 
-    JDK_PACKAGE=$(basename $JDK_INSTALL_URL)
-    wget -nv $JDK_INSTALL_URL
-    if [ $(echo $JDK_PACKAGE | cut -d'.' -f2) == "bin" ]; then
-      chmod +x $JDK_PACKAGE  
-      mv /bin/more /bin/more.no
-      yes | ./$JDK_PACKAGE -noregister
-      mv /bin/more.no /bin/more
-      rm -f *.rpm $JDK_PACKAGE
-    elif [ $(echo $JDK_PACKAGE | cut -d'.' -f2) == "tar" ]; then
-      tar xf $JDK_PACKAGE
-      rm -rf $JDK_PACKAGE  
-    fi 
+  JDK_FETCHED=1
+  if [ ! -z "$JDK_URL" ]; then
+    fetch_artefact "$JDK_URL" "$JDK_SHA1"
+    JDK_FETCHED=$?
+  fi
+  if [ $JDK_FETCHED -eq 2 ]; then
+    echo "JDK archive [$JDK_URL] failed checksum verification"
+    exit 1
+  elif [ $JDK_FETCHED -eq 0 ]; then
+    artefact_install_jdk "$ARTEFACT_FILE" $JDK_INSTALL_PATH
   else 
     REPOCM=${REPOCM:-cm5}
     CM_MAJOR_VERSION=$(echo $REPOCM | sed -e 's/cm\([0-9]\).*/\1/')
     if [ $CM_MAJOR_VERSION -ge 5 ]; then
       if which dpkg &> /dev/null; then
-        retry_apt_get update
-        retry_apt_get -y install oracle-j2sdk1.7
+        install_packages oracle-j2sdk1.7
       elif which rpm &> /dev/null; then
         retry_yum install -y oracle-j2sdk1.7
       fi
     else
       if which dpkg &> /dev/null; then
-        retry_apt_get update
-        retry_apt_get -y install oracle-j2sdk1.6
+        install_packages oracle-j2sdk1.6
       elif which rpm &> /dev/null; then
         retry_yum install -y jdk
       fi
@@ -30,10 +30,10 @@ function install_cm_server() {
     fi    
   fi
   CM_REPO_ROOT=${CM_REPO_ROOT:-http://$CM_REPO_HOST/cm$CM_MAJOR_VERSION}
-  if which dpkg &> /dev/null; then
-    export DEBIAN_FRONTEND=noninteractive
-    retry_apt_get update
-    retry_apt_get -q -y install "cloudera-manager-server$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
+  if image_installed cm_server "$CM_VERSION"; then
+    echo "Using pre-installed CM server"
+  elif which dpkg &> /dev/null; then
+    install_packages "cloudera-manager-server$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
   elif which rpm &> /dev/null; then
     retry_yum install --exclude jdk -y "cloudera-manager-server$CM_VERSION_PACKAGE" "cloudera-manager-daemons$CM_VERSION_PACKAGE"
   fi
@@ -17,21 +17,44 @@
 
 set -x
 
+# Database sizing defaults to a share of the host's memory and CPUs and whether its disk is rotational,
+# any value passed to install_database takes precedence over the computed one
+function database_tuning() {
+  DB_MEMORY_MB=$(awk '/^MemTotal:/ {print int($2 / 1024)}' /proc/meminfo)
+  DB_CPUS=$(grep -c ^processor /proc/cpuinfo)
+  DB_PARTITION=$(df -P $1 2> /dev/null | awk 'NR == 2 {print $1}')
+  DB_DEVICE=$(lsblk -no pkname $DB_PARTITION 2> /dev/null | head -n 1)
+  if [ -z "$DB_DEVICE" ]; then
+    DB_DEVICE=$(basename $DB_PARTITION | sed -e 's|[0-9]*$||')
+  fi
+  if [ "$(cat /sys/block/$DB_DEVICE/queue/rotational 2> /dev/null)" == "0" ]; then
+    DB_IO_CAPACITY=${DB_IO_CAPACITY:-2000}
+  else
+    DB_IO_CAPACITY=${DB_IO_CAPACITY:-200}
+  fi
+  DB_BUFFER_MB=${DB_BUFFER_MB:-$(( DB_MEMORY_MB / 4 < 128 ? 128 : DB_MEMORY_MB / 4 ))}
+  DB_LOG_MB=${DB_LOG_MB:-$(( DB_BUFFER_MB / 4 < 64 ? 64 : (DB_BUFFER_MB / 4 > 512 ? 512 : DB_BUFFER_MB / 4) ))}
+  DB_CONNECTIONS_MAX=${DB_CONNECTIONS_MAX:-$(( DB_MEMORY_MB / 16 < 150 ? 150 : (DB_MEMORY_MB / 16 > 750 ? 750 : DB_MEMORY_MB / 16) ))}
+  DB_THREADS=$(( DB_CPUS * 2 ))
+}
+
 function install_mysql() {
   if [ "$INSTALL_DATABASE" != "1" ]; then
     if which dpkg &> /dev/null; then
-      export DEBIAN_FRONTEND=noninteractive
-      retry_apt_get update
-      sleep $[ ( $RANDOM % 30 )  + 1 ]s
-      retry_apt_get update
-      retry_apt_get -q -y install expect mysql-server-5.5 libmysql-java
+      if ! image_installed mysql; then
+        install_packages expect mysql-server-5.5 libmysql-java
+      fi
       service mysql stop
       MYSQL_CONF="/etc/mysql/my.cnf"
     elif which rpm &> /dev/null; then
-      retry_yum install -y expect "mysql-server-5.1*" mysql-connector-java
+      if ! image_installed mysql; then
+        retry_yum install -y expect "mysql-server-5.1*" mysql-connector-java
+      fi
+      service mysqld stop
       MYSQL_CONF="/etc/my.cnf"
     fi
     rm -rf /var/lib/mysql/ib_logfile*
+    database_tuning /var/lib/mysql
     echo '
 [mysqld]
 
@@ -50,10 +73,9 @@ key_buffer_size=32M
 max_allowed_packet=16M
 thread_stack=256K
 thread_cache_size=64
-query_cache_limit=8M
-query_cache_size=64M
-query_cache_type=1
-max_connections=750
+query_cache_size=0
+query_cache_type=0
+max_connections='$DB_CONNECTIONS_MAX'
 
 read_buffer_size=2M
 read_rnd_buffer_size=16M
@@ -62,11 +84,12 @@ join_buffer_size=8M
 
 innodb_file_per_table=1
 innodb_flush_log_at_trx_commit=2
-innodb_thread_concurrency=8
+innodb_thread_concurrency='$DB_THREADS'
 innodb_flush_method=O_DIRECT
 innodb_log_buffer_size=32M
-innodb_buffer_pool_size=2G
-innodb_log_file_size=256M
+innodb_buffer_pool_size='$DB_BUFFER_MB'M
+innodb_log_file_size='$DB_LOG_MB'M
+loose-innodb_io_capacity='$DB_IO_CAPACITY'
 
 [mysqld_safe]
 
@@ -115,7 +138,7 @@ function install_database() {
   local OPTARG
   TYPE=mysql
   DATABASE=database
-  while getopts "t:d:" OPTION; do
+  while getopts "t:d:b:l:c:i:" OPTION; do
     case $OPTION in
       t)
         TYPE="$OPTARG"
@@ -123,6 +146,18 @@ function install_database() {
       d)
         DATABASE="$OPTARG"
         ;;
+      b)
+        DB_BUFFER_MB="$OPTARG"
+        ;;
+      l)
+        DB_LOG_MB="$OPTARG"
+        ;;
+      c)
+        DB_CONNECTIONS_MAX="$OPTARG"
+        ;;
+      i)
+        DB_IO_CAPACITY="$OPTARG"
+        ;;
     esac
   done
   if [ "$TYPE" == "mysql" ]; then
@@ -0,0 +1,54 @@
+#
+# Licensed to Cloudera, Inc. under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# Cloudera, Inc. licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+set -x
+
+# Package index refreshes are coalesced across the functions and script runs of an instance boot, the index is
+# refreshed again once a function has registered a new repository or the last refresh is older than an hour, the
+# stamp being keyed by boot so that instances booted from an image baked after a run never see it
+PACKAGES_UPDATED_STAMP=/tmp/whirr-cm-packages.updated
+PACKAGES_UPDATED_MAX_AGE_MINS=60
+
+function package_helpers() {
+  PACKAGES_UPDATED_STAMP=/tmp/whirr-cm-packages.updated.$(cat /proc/sys/kernel/random/boot_id 2> /dev/null)
+}
+
+function stale_packages() {
+  rm -f $PACKAGES_UPDATED_STAMP
+}
+
+function update_packages() {
+  if [ -z "$(find $PACKAGES_UPDATED_STAMP -mmin -$PACKAGES_UPDATED_MAX_AGE_MINS 2> /dev/null)" ]; then
+    if which dpkg &> /dev/null; then
+      export DEBIAN_FRONTEND=noninteractive
+      retry_apt_get update
+    elif which rpm &> /dev/null; then
+      retry_yum makecache
+    fi
+    touch $PACKAGES_UPDATED_STAMP
+  fi
+}
+
+function install_packages() {
+  update_packages
+  if which dpkg &> /dev/null; then
+    export DEBIAN_FRONTEND=noninteractive
+    retry_apt_get -q -y install "$@"
+  elif which rpm &> /dev/null; then
+    retry_yum install -y "$@"
+  fi
+}
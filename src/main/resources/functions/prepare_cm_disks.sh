@@ -0,0 +1,89 @@
+#
+# Licensed to Cloudera, Inc. under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# Cloudera, Inc. licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+set -x
+
+function prepare_cm_disk() {
+  MOUNT=$1
+  DEVICE=$2
+  echo "warning: ERASING CONTENTS OF $DEVICE"
+  if grep -q "^$DEVICE " /proc/mounts; then
+    umount $DEVICE
+  fi
+  if [ "$DISK_FS" == "xfs" ]; then
+    mkfs.xfs -f -q $DEVICE
+  elif [ "$DISK_FS" == "ext4" ]; then
+    mkfs.ext4 -F -q -m $DISK_RESERVED -E lazy_itable_init=1 $DEVICE
+  else
+    mkfs.$DISK_FS -F -q -m $DISK_RESERVED $DEVICE
+  fi
+  mkdir -p $MOUNT
+  mount -t $DISK_FS -o $DISK_OPTIONS $DEVICE $MOUNT
+}
+
+# Disks are formatted concurrently, each mount the cluster's data directories are expanded over is created even
+# when it has no device behind it, so directory lists and mounts always line up
+function prepare_cm_disks() {
+  local OPTIND
+  local OPTARG
+  DISK_FS=ext4
+  DISK_OPTIONS=defaults,noatime,nodiratime
+  DISK_RESERVED=0
+  DISK_MOUNTS=
+  while getopts "f:o:r:m:" OPTION; do
+    case $OPTION in
+      f)
+        DISK_FS="$OPTARG"
+        ;;
+      o)
+        DISK_OPTIONS="$OPTARG"
+        ;;
+      r)
+        DISK_RESERVED="$OPTARG"
+        ;;
+      m)
+        DISK_MOUNTS="$OPTARG"
+        ;;
+    esac
+  done
+  shift $((OPTIND-1))
+  if ! which mkfs.$DISK_FS &> /dev/null; then
+    if [ "$DISK_FS" == "xfs" ]; then
+      install_packages xfsprogs
+    else
+      install_packages e2fsprogs
+    fi
+  fi
+  DISK_PIDS=
+  for DISK_MAPPING in $(echo "$1" | tr ";" "\n"); do
+    prepare_cm_disk ${DISK_MAPPING%,*} ${DISK_MAPPING#*,} &
+    DISK_PIDS="$DISK_PIDS $!"
+  done
+  DISK_FAILURES=0
+  for DISK_PID in $DISK_PIDS; do
+    if ! wait $DISK_PID; then
+      DISK_FAILURES=$((DISK_FAILURES+1))
+    fi
+  done
+  for DISK_MOUNT in $(echo "$DISK_MOUNTS" | tr "," "\n"); do
+    mkdir -p $DISK_MOUNT
+  done
+  if [ $DISK_FAILURES -gt 0 ]; then
+    echo "Failed to prepare [$DISK_FAILURES] disks"
+    return 1
+  fi
+}
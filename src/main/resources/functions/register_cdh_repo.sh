@@ -24,7 +24,7 @@ function register_cdh_repo() {
     CDH_REPO_ROOT=${CDH_REPO_ROOT:-http://$CDH_REPO_HOST/cdh$CDH_MAJOR_VERSION}
     IMPALA_REPO_ROOT=${CDH_REPO_ROOT:-http://$CDH_REPO_HOST/impala}
     if which dpkg &> /dev/null; then
-	retry_apt-get -y install lsb-release
+	install_packages lsb-release
 	OS_CODENAME=$(lsb_release -sc)
 	OS_DISTID=$(lsb_release -si | tr '[A-Z]' '[a-z]')
         cat > /etc/apt/sources.list.d/cloudera-$REPOCDH.list <<EOF
@@ -37,7 +37,7 @@ deb [arch=amd64] $IMPALA_REPO_ROOT/$OS_DISTID/$OS_CODENAME/amd64/impala $OS_CODE
 deb-src $IMPALA_REPO_ROOT/$OS_DISTID/$OS_CODENAME/amd64/impala $OS_CODENAME-impala contrib
 EOF
         curl -s $IMPALA_REPO_ROOT/$OS_DISTID/$OS_CODENAME/amd64/impala/archive.key | apt-key add -
-        retry_apt_get -y update
+        stale_packages
     elif which rpm &> /dev/null; then
         RHEL_VERSION=$(lsb_release -sr | sed -e 's/\([0-9]*\)\..*/\1/')
         cat > /etc/yum.repos.d/cloudera-$REPOCDH.repo <<EOF
@@ -56,7 +56,6 @@ gpgkey=$IMPALA_REPO_ROOT/redhat/\$releasever/\$basearch/impala/RPM-GPG-KEY-cloud
 gpgcheck=1
 EOF
         rpm --import $IMPALA_REPO_ROOT/redhat/${RHEL_VERSION}/$(rpm -q --qf "%{ARCH}" $(rpm -q --whatprovides redhat-release))/impala/RPM-GPG-KEY-cloudera
-        
-        retry_yum update -y retry_yum
+        stale_packages
     fi
 }
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloudera.whirr.cm.handler.cdh.CmCdhHdfsNameNodeHandler;
+import com.cloudera.whirr.cm.handler.cdh.CmCdhYarnNodeManagerHandler;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+
+public class CmRoleRegistryTest implements BaseTest {
+
+  @Test
+  public void testRoles() throws Exception {
+    Assert.assertEquals(CmServerServiceType.HDFS_NAMENODE, CmRoleRegistry.getType(CmCdhHdfsNameNodeHandler.ROLE));
+    Assert.assertEquals(CmServerServiceType.YARN_NODE_MANAGER,
+        CmRoleRegistry.getType(CmCdhYarnNodeManagerHandler.ROLE));
+    Assert.assertNull(CmRoleRegistry.getType("some-unknown-role"));
+    Assert.assertEquals(CmCdhHdfsNameNodeHandler.class, CmRoleRegistry.getHandler(CmServerServiceType.HDFS_NAMENODE));
+    Assert.assertNull(CmRoleRegistry.getHandler(CmServerServiceType.HDFS));
+    Assert.assertSame(CmRoleRegistry.getRolesToType(), CmRoleRegistry.getRolesToType());
+    boolean caught = false;
+    try {
+      CmRoleRegistry.getRolesToType().clear();
+    } catch (UnsupportedOperationException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+    int roles = CmRoleRegistry.getRolesToType().size();
+    CmRoleRegistry.refresh();
+    Assert.assertEquals(roles, CmRoleRegistry.getRolesToType().size());
+  }
+
+  @Test
+  public void testTypes() throws Exception {
+    Assert.assertEquals(CmServerServiceType.HDFS_NAMENODE, CmRoleRegistry.getTypeForId("NAMENODE"));
+    Assert.assertEquals(CmServerServiceType.GATEWAY, CmRoleRegistry.getTypeForId("GATEWAY"));
+    boolean caught = false;
+    try {
+      CmRoleRegistry.getTypeForId("SOME_UNKNOWN_ID");
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+    Assert.assertTrue(CmRoleRegistry.getChildren(CmServerServiceType.HDFS).contains(CmServerServiceType.HDFS_DATANODE));
+    Assert.assertTrue(CmRoleRegistry.getChildren(CmServerServiceType.CLUSTER).contains(CmServerServiceType.HDFS));
+    Assert.assertTrue(CmRoleRegistry.getChildren(CmServerServiceType.HDFS_DATANODE).isEmpty());
+  }
+
+}
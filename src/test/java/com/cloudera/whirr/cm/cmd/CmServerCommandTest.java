@@ -53,7 +53,8 @@ public class CmServerCommandTest extends BaseTestCommand {
 
   private static final List<Class<? extends BaseCommand>> COMMANDS = ImmutableList.<Class<? extends BaseCommand>> of(
       CmServerInitClusterCommand.class, CmServerCreateServicesCommand.class, CmServerDownloadConfigCommand.class,
-      CmServerListServicesCommand.class, CmServerDestroyServicesCommand.class, CmServerCleanClusterCommand.class);
+      CmServerListServicesCommand.class, CmServerDestroyServicesCommand.class, CmServerCleanClusterCommand.class,
+      CmServerSyncBalancerCommand.class);
 
   @Test
   public void testCommandServiceLoader() throws Exception {
@@ -48,6 +48,7 @@ import com.cloudera.whirr.cm.server.impl.CmServerFactory;
 import com.cloudera.whirr.cm.server.impl.CmServerImpl;
 import com.cloudera.whirr.cm.server.impl.CmServerLog;
 import com.cloudera.whirr.cm.server.impl.CmServerLog.CmServerLogSyncCommand;
+import com.cloudera.whirr.cm.server.impl.CmServerLogHistory;
 import com.google.common.collect.ImmutableMap;
 import com.jcraft.jsch.JSchException;
 
@@ -82,7 +83,7 @@ public abstract class BaseTestHandler extends BaseServiceDryRunTest implements B
     Mockito.when(
         factory.getCmServer(Matchers.anyString(), Matchers.anyString(), Matchers.anyString(), Matchers.anyString(),
             Matchers.anyString(), Matchers.anyInt(), Matchers.anyString(), Matchers.anyString(),
-            Matchers.<CmServerLog> any())).thenReturn(new CmServer() {
+            Matchers.<CmServerLog> any(), Matchers.<CmServerLogHistory> any())).thenReturn(new CmServer() {
 
       private boolean isProvisioned = false;
       private boolean isConfigured = false;
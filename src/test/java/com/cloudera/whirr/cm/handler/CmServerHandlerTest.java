@@ -20,19 +20,36 @@ package com.cloudera.whirr.cm.handler;
 import static com.google.common.base.Predicates.and;
 import static com.google.common.base.Predicates.containsPattern;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.whirr.Cluster;
+import org.apache.whirr.Cluster.Instance;
 import org.apache.whirr.ClusterController;
 import org.apache.whirr.ClusterSpec;
+import org.apache.whirr.service.ClusterActionEvent;
+import org.apache.whirr.service.jclouds.StatementBuilder;
+import org.jclouds.domain.Credentials;
+import org.jclouds.scriptbuilder.domain.OsFamily;
+import org.jclouds.scriptbuilder.domain.Statement;
+import org.jclouds.scriptbuilder.domain.Statements;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
+import com.cloudera.whirr.cm.CmServerClusterConfiguration;
 import com.cloudera.whirr.cm.CmServerClusterInstance;
+import com.cloudera.whirr.cm.CmServerClusterMounts;
 import com.cloudera.whirr.cm.cmd.BaseCommandCmServer;
+import com.cloudera.whirr.cm.handler.CmBalancerHandler.BalancerService;
+import com.cloudera.whirr.cm.handler.cdh.BaseHandlerCmCdh;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhFlumeAgentHandler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhHBaseMasterHandler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhHBaseRegionServerHandler;
@@ -57,6 +74,9 @@ import com.cloudera.whirr.cm.handler.cdh.CmCdhSparkMasterHandler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhSparkWorkerHandler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhSqoopServerHandler;
 import com.cloudera.whirr.cm.handler.cdh.CmCdhZookeeperServerHandler;
+import com.cloudera.whirr.cm.server.CmServerCluster;
+import com.cloudera.whirr.cm.server.CmServerService.CmServerServiceStatus;
+import com.cloudera.whirr.cm.server.CmServerServiceBuilder;
 import com.cloudera.whirr.cm.server.CmServerServiceType;
 import com.cloudera.whirr.cm.server.CmServerServiceTypeCms;
 import com.google.common.base.Predicate;
@@ -126,6 +146,14 @@ public class CmServerHandlerTest extends BaseTestHandler {
         "500000",
         configuration.getString(CONFIG_WHIRR_CM_CONFIG_PREFIX + CmServerServiceTypeCms.CM.getId().toLowerCase()
             + ".parcel_distribute_rate_limit_kbs_per_second"));
+    Assert.assertEquals("", configuration.getString(CONFIG_WHIRR_PARCEL_CACHE));
+    Assert.assertFalse(configuration.getBoolean(CONFIG_WHIRR_IMAGE_PREBAKED));
+    Assert.assertEquals("ext4", configuration.getString(CONFIG_WHIRR_DATA_DIRS_FS));
+    Assert.assertTrue(configuration.getString(CONFIG_WHIRR_DATA_DIRS_OPTIONS).contains("noatime"));
+    Assert.assertEquals(
+        "/data/manager/parcels/parcel-repository",
+        CmServerClusterInstance.getClusterConfiguration(configuration, new TreeSet<String>(),
+            CmServerServiceTypeCms.CM.getId(), null, CONFIG_CM_PARCEL_REPO_PATH));
 
     configuration = CmServerClusterInstance.getConfiguration(newClusterSpecForProperties(ImmutableMap
         .of("whirr.instance-templates", "1 " + CmServerHandler.ROLE + ",2 " + CmNodeHandler.ROLE,
@@ -389,6 +417,216 @@ public class CmServerHandlerTest extends BaseTestHandler {
 
   }
 
+  @Test
+  public void testConfigurationCached() throws Exception {
+    ClusterSpec clusterSpec = newClusterSpecForProperties(ImmutableMap.of("whirr.instance-templates", "1 "
+        + CmServerHandler.ROLE + ",2 " + CmNodeHandler.ROLE));
+    Configuration configuration = CmServerClusterInstance.getConfiguration(clusterSpec);
+    Assert.assertSame(configuration, CmServerClusterInstance.getConfiguration(clusterSpec));
+    clusterSpec.getConfiguration().setProperty(CONFIG_WHIRR_INTERNAL_AGENT_LOG_FILE, "/some/agent.log");
+    Assert.assertEquals("/some/agent.log", CmServerClusterInstance.getConfiguration(clusterSpec).getString(
+        CONFIG_WHIRR_INTERNAL_AGENT_LOG_FILE));
+    Configuration configurationOther = CmServerClusterInstance.getConfiguration(newClusterSpecForProperties(Collections
+        .<String, String> emptyMap()));
+    Assert.assertNotSame(configuration, configurationOther);
+    Assert.assertEquals("/manager/agent/log/agent.log",
+        configurationOther.getString(CONFIG_WHIRR_INTERNAL_AGENT_LOG_FILE));
+    Assert.assertNotSame(configurationOther, CmServerClusterInstance.getConfiguration(null));
+  }
+
+  @Test
+  public void testClusterConfigurationCompiled() throws Exception {
+    ClusterSpec clusterSpec = newClusterSpecForProperties(ImmutableMap.of("whirr.instance-templates", "1 "
+        + CmServerHandler.ROLE + ",2 " + CmNodeHandler.ROLE, CONFIG_WHIRR_CM_CONFIG_PREFIX
+        + CmServerServiceType.HDFS.getId().toLowerCase() + ".some_setting", "some_value"));
+    CmServerClusterConfiguration clusterConfiguration = CmServerClusterInstance.getClusterConfigurationCompiled(
+        clusterSpec, ImmutableSortedSet.of("/mnt/1"));
+    Assert.assertSame(clusterConfiguration, CmServerClusterInstance.getClusterConfigurationCompiled(clusterSpec,
+        new TreeSet<String>(Collections.singleton("/mnt/1"))));
+    Assert.assertNotSame(clusterConfiguration,
+        CmServerClusterInstance.getClusterConfigurationCompiled(clusterSpec, ImmutableSortedSet.of("/mnt/2")));
+    Assert.assertEquals("some_value", clusterConfiguration.getSetting(CmServerClusterInstance.CM_API_BASE_VERSION,
+        CmServerServiceType.HDFS.getId(), "some_setting"));
+    Assert.assertEquals("some_value",
+        clusterConfiguration.getSettingBySuffix(CmServerServiceType.HDFS_NAMENODE.getId(),
+            CmServerServiceType.HDFS.getId(), "setting"));
+    Assert.assertNull(clusterConfiguration.getSetting("999", CmServerServiceType.HDFS.getId(), "some_setting"));
+    boolean caught = false;
+    try {
+      clusterConfiguration.getConfiguration().get(CmServerClusterInstance.CM_API_BASE_VERSION)
+          .get(CmServerServiceType.HDFS.getId()).put("some_setting", "some_other_value");
+    } catch (UnsupportedOperationException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+    clusterSpec.getConfiguration().setProperty(
+        CONFIG_WHIRR_CM_CONFIG_PREFIX + CmServerServiceType.HDFS.getId().toLowerCase() + ".some_setting",
+        "some_other_value");
+    CmServerClusterConfiguration clusterConfigurationChanged = CmServerClusterInstance
+        .getClusterConfigurationCompiled(clusterSpec, ImmutableSortedSet.of("/mnt/1"));
+    Assert.assertNotSame(clusterConfiguration, clusterConfigurationChanged);
+    Assert.assertEquals("some_other_value", clusterConfigurationChanged.getSetting(
+        CmServerClusterInstance.CM_API_BASE_VERSION, CmServerServiceType.HDFS.getId(), "some_setting"));
+  }
+
+  @Test
+  public void testMountPlanCached() throws Exception {
+    ClusterSpec clusterSpec = newClusterSpecForProperties(ImmutableMap.of("whirr.instance-templates", "1 "
+        + CmServerHandler.ROLE + ",2 " + CmNodeHandler.ROLE));
+    CmServerClusterMounts mountPlan = CmServerClusterInstance.getMountPlan(clusterSpec, (Cluster) null);
+    Assert.assertSame(mountPlan, CmServerClusterInstance.getMountPlan(clusterSpec, Collections.<Instance> emptySet()));
+    Assert.assertEquals(ImmutableSortedSet.of(CmServerClusterInstance.getConfiguration(clusterSpec).getString(
+        CONFIG_WHIRR_INTERNAL_DATA_DIRS_DEFAULT)), mountPlan.getMounts());
+    Assert.assertEquals(mountPlan.getMounts(), mountPlan.getMounts(Collections.singleton(CmNodeHandler.ROLE)));
+    Assert.assertTrue(mountPlan.getDeviceMappings().isEmpty());
+    clusterSpec.getConfiguration().setProperty(CONFIG_WHIRR_DATA_DIRS_ROOT, Arrays.asList("/data1", "/data2"));
+    Assert.assertNotSame(mountPlan, CmServerClusterInstance.getMountPlan(clusterSpec, (Cluster) null));
+    Assert.assertEquals(ImmutableSortedSet.of("/data1", "/data2"),
+        CmServerClusterInstance.getMounts(clusterSpec, (Cluster) null));
+  }
+
+  @Test
+  public void testClusterCacheStats() throws Exception {
+    ClusterSpec clusterSpec = newClusterSpecForProperties(ImmutableMap.of("whirr.instance-templates", "1 "
+        + CmServerHandler.ROLE + ",2 " + CmNodeHandler.ROLE));
+    long hits = CmServerClusterInstance.getClusterCacheStats().hitCount();
+    long misses = CmServerClusterInstance.getClusterCacheStats().missCount();
+    Assert.assertSame(CmServerClusterInstance.getCluster(clusterSpec), CmServerClusterInstance.getCluster(clusterSpec));
+    Assert.assertEquals(hits + 1, CmServerClusterInstance.getClusterCacheStats().hitCount());
+    Assert.assertEquals(misses + 1, CmServerClusterInstance.getClusterCacheStats().missCount());
+  }
+
+  @Test
+  public void testPackages() throws Exception {
+    Set<String> roles = new LinkedHashSet<String>(Arrays.asList(CmAgentHandler.ROLE, CmCdhHdfsDataNodeHandler.ROLE,
+        CmCdhMapReduceTaskTrackerHandler.ROLE));
+    Assert.assertEquals(CmCdhHdfsDataNodeHandler.ROLE, BaseHandlerCmCdh.getRoleLead(roles));
+    Assert.assertNull(BaseHandlerCmCdh.getRoleLead(Collections.singleton(CmAgentHandler.ROLE)));
+    Set<String> packages = BaseHandlerCmCdh.getPackages(roles);
+    Assert.assertTrue(packages.contains("hadoop-hdfs"));
+    Assert.assertTrue(packages.contains("hadoop-0.20-mapreduce"));
+    Assert.assertFalse(packages.contains("hive"));
+    Assert.assertFalse(packages.contains("hue"));
+    Assert.assertFalse(packages.contains("oozie"));
+    Assert.assertTrue(BaseHandlerCmCdh.getPackages(Collections.singleton(CmCdhHueServerHandler.ROLE)).contains("hue"));
+    Assert.assertEquals(BaseHandlerCmCdh.getPackages(Collections.<String> emptySet()),
+        BaseHandlerCmCdh.getPackages(Collections.singleton(CmAgentHandler.ROLE)));
+  }
+
+  @Test
+  public void testOsProfile() throws Exception {
+    Set<String> roles = new LinkedHashSet<String>(Arrays.asList(CmAgentHandler.ROLE, CmCdhHdfsDataNodeHandler.ROLE,
+        CmCdhHBaseRegionServerHandler.ROLE));
+    Assert.assertEquals(new TreeSet<String>(Arrays.asList("hbase", "hdfs")), BaseHandler.getOsProfileUsers(roles));
+    Assert.assertTrue(BaseHandler.getOsProfileUsers(Collections.singleton(CmAgentHandler.ROLE)).isEmpty());
+    Configuration configuration = CmServerClusterInstance.getConfiguration(newClusterSpecForProperties(Collections
+        .<String, String> emptyMap()));
+    String statement = BaseHandler.callOsProfile(configuration, roles, new TreeSet<String>(Arrays.asList("/data0",
+        "/data1"))).render(OsFamily.UNIX);
+    Assert.assertTrue(statement.contains("-s 1"));
+    Assert.assertTrue(statement.contains("-u hbase,hdfs"));
+    Assert.assertTrue(statement.contains("-d /data0,/data1"));
+    statement = BaseHandler.callOsProfile(configuration, Collections.singleton(CmAgentHandler.ROLE),
+        new TreeSet<String>()).render(OsFamily.UNIX);
+    Assert.assertFalse(statement.contains("-u"));
+    Assert.assertFalse(statement.contains("-d"));
+  }
+
+  @Test
+  public void testBalancer() throws Exception {
+    Configuration configuration = CmServerClusterInstance.getConfiguration(newClusterSpecForProperties(Collections
+        .<String, String> emptyMap()));
+    Credentials credentials = new Credentials("dummy", "dummy");
+    Set<Instance> instances = new LinkedHashSet<Instance>();
+    instances.add(new Instance(credentials, new HashSet<String>(Arrays.asList(CmBalancerHandler.ROLE,
+        CmCdhOozieServerHandler.ROLE)), "127.0.0.1", "127.0.0.1", "id1", null));
+    instances.add(new Instance(credentials, new HashSet<String>(Arrays.asList(CmCdhImpalaDaemonHandler.ROLE,
+        CmCdhOozieServerHandler.ROLE)), "127.0.0.2", "127.0.0.2", "id2", null));
+    instances.add(new Instance(credentials, Collections.singleton(CmCdhImpalaDaemonHandler.ROLE), "127.0.0.3",
+        "127.0.0.3", "id3", null));
+    Map<BalancerService, List<String>> backends = CmBalancerHandler.getBackends(configuration, instances,
+        Collections.singleton(CmBalancerHandler.ROLE));
+    Assert.assertEquals(2, backends.size());
+    Assert.assertEquals(Arrays.asList("127.0.0.2:21000", "127.0.0.3:21000"), backends.get(CmBalancerHandler.SERVICES
+        .get(0)));
+    Assert.assertEquals(2, backends.get(CmBalancerHandler.SERVICES.get(6)).size());
+    backends = CmBalancerHandler.getBackends(configuration, instances, new HashSet<String>(Arrays.asList(
+        CmBalancerHandler.ROLE, CmCdhOozieServerHandler.ROLE)));
+    Assert.assertEquals(1, backends.size());
+    String statement = CmBalancerHandler.callConfigure(configuration, backends).render(OsFamily.UNIX);
+    Assert.assertTrue(statement.contains("-s 'impala;21000;tcp;127.0.0.2:21000,127.0.0.3:21000'"));
+    Assert.assertTrue(CmBalancerHandler.getBackends(configuration, Collections.<Instance> emptySet(),
+        Collections.singleton(CmBalancerHandler.ROLE)).isEmpty());
+    CmServerCluster cluster = new CmServerCluster();
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.IMPALA_DAEMON).tag("cdh").qualifier("1")
+        .ipInternal("127.0.0.2").status(CmServerServiceStatus.STARTED).build());
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.IMPALA_DAEMON).tag("cdh").qualifier("2")
+        .ipInternal("127.0.0.3").status(CmServerServiceStatus.STOPPED).build());
+    backends = CmBalancerHandler.getBackends(configuration, cluster, Collections.singleton(CmBalancerHandler.ROLE));
+    Assert.assertEquals(1, backends.size());
+    Assert.assertEquals(Arrays.asList("127.0.0.2:21000"), backends.get(CmBalancerHandler.SERVICES.get(0)));
+  }
+
+  @Test
+  public void testDatabaseTuning() throws Exception {
+    String statement = BaseHandler.callInstallDatabase(
+        newClusterSpecForProperties(Collections.<String, String> emptyMap()), "mysql", "cm").render(OsFamily.UNIX);
+    Assert.assertTrue(statement.contains("install_database -t mysql -d cm"));
+    Assert.assertFalse(statement.contains("-b"));
+    statement = BaseHandler.callInstallDatabase(
+        newClusterSpecForProperties(ImmutableMap.of(CONFIG_WHIRR_DB_BUFFER_MB, "4096", CONFIG_WHIRR_DB_CONNECTIONS_MAX,
+            "300")), "mysql", "cm").render(OsFamily.UNIX);
+    Assert.assertTrue(statement.contains("-b 4096"));
+    Assert.assertTrue(statement.contains("-c 300"));
+    Assert.assertFalse(statement.contains("-l"));
+  }
+
+  @Test
+  public void testAddStatement() throws Exception {
+    StatementBuilder builder1 = Mockito.mock(StatementBuilder.class);
+    StatementBuilder builder2 = Mockito.mock(StatementBuilder.class);
+    ClusterActionEvent event1 = Mockito.mock(ClusterActionEvent.class);
+    ClusterActionEvent event2 = Mockito.mock(ClusterActionEvent.class);
+    Mockito.when(event1.getStatementBuilder()).thenReturn(builder1);
+    Mockito.when(event2.getStatementBuilder()).thenReturn(builder2);
+    Statement helpers = Statements.call("package_helpers");
+    Statement databaseCm = Statements.call("install_database", "-t", "mysql", "-d", "cm");
+    Statement databaseHive = Statements.call("install_database", "-t", "mysql", "-d", "hive");
+    Statement firewall7180 = Statements.exec("iptables -I INPUT 1 -p tcp --dport 7180 -j ACCEPT");
+    Statement firewall7183 = Statements.exec("iptables -I INPUT 1 -p tcp --dport 7183 -j ACCEPT");
+    Statement unrenderable = Mockito.mock(Statement.class);
+    Mockito.when(unrenderable.render(Mockito.any(OsFamily.class))).thenThrow(new UnsupportedOperationException());
+    BaseHandler handler = new CmServerHandler();
+    BaseHandler handlerOther = new CmAgentHandler();
+    for (Statement statement : Arrays.asList(helpers, databaseCm, databaseHive, firewall7180, firewall7183,
+        unrenderable)) {
+      handler.addStatement(event1, statement);
+      handlerOther.addStatement(event1, statement);
+    }
+    handlerOther.addStatement(event2, helpers);
+    Mockito.verify(builder1, Mockito.times(1)).addStatement(helpers);
+    Mockito.verify(builder1, Mockito.times(1)).addStatement(databaseCm);
+    Mockito.verify(builder1, Mockito.times(1)).addStatement(databaseHive);
+    Mockito.verify(builder1, Mockito.times(1)).addStatement(firewall7180);
+    Mockito.verify(builder1, Mockito.times(1)).addStatement(firewall7183);
+    Mockito.verify(builder1, Mockito.times(2)).addStatement(unrenderable);
+    Mockito.verify(builder2, Mockito.times(1)).addStatement(helpers);
+  }
+
+  @Test
+  public void testArtefacts() throws Exception {
+    ClusterSpec spec = newClusterSpecForProperties(Collections.<String, String> emptyMap());
+    Assert.assertTrue(BaseHandler.callArtefactHelpers(spec).render(OsFamily.UNIX).contains(
+        "artefact_helpers -d /var/cache/whirr-cm"));
+    Assert.assertFalse(BaseHandler.callInstallJava(spec).render(OsFamily.UNIX).contains("-u"));
+    spec = newClusterSpecForProperties(ImmutableMap.of(CONFIG_WHIRR_ARTEFACT_CACHE, "http://mirror/artefacts",
+        CONFIG_WHIRR_JDK_URL, "http://mirror/jdk-7u51-linux-x64.tar.gz", CONFIG_WHIRR_JDK_SHA1, "abc123"));
+    Assert.assertTrue(BaseHandler.callArtefactHelpers(spec).render(OsFamily.UNIX).contains(
+        "-c 'http://mirror/artefacts'"));
+    Assert.assertTrue(BaseHandler.callInstallJava(spec).render(OsFamily.UNIX).contains(
+        "install_cm_java -u 'http://mirror/jdk-7u51-linux-x64.tar.gz' -s abc123"));
+  }
+
   @Test
   public void testNodes() throws Exception {
     Assert.assertNotNull(launchWithClusterSpec(newClusterSpecForProperties(ImmutableMap.of("whirr.instance-templates",
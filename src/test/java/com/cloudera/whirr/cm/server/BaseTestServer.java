@@ -17,8 +17,30 @@
  */
 package com.cloudera.whirr.cm.server;
 
+import org.junit.Before;
+
 import com.cloudera.whirr.cm.BaseTest;
+import com.cloudera.whirr.cm.server.impl.CmServerApiSimulator;
+import com.cloudera.whirr.cm.server.impl.CmServerLog;
 
 public abstract class BaseTestServer implements BaseTest {
 
+  protected CmServerApiSimulator simulator;
+
+  @Before
+  public void setupSimulator() {
+    simulator = new CmServerApiSimulator();
+  }
+
+  protected CmServer getSimulatedServer(CmServerCluster cluster) throws CmServerException {
+    return getSimulatedServer(cluster, null, null);
+  }
+
+  protected CmServer getSimulatedServer(CmServerCluster cluster, String versionApi, String versionCdh)
+      throws CmServerException {
+    simulator.addHosts(cluster);
+    return simulator.getCmServer(null, versionApi, versionCdh, cluster.getServer().getIp(),
+        new CmServerLog.CmServerLogNull());
+  }
+
 }
@@ -18,6 +18,7 @@
 package com.cloudera.whirr.cm.server;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -231,6 +232,14 @@ public class CmServerClusterTest extends BaseTestServer {
             "some-value-4",
             cluster.getServiceConfiguration().get("4").get(CmServerServiceType.HDFS_NAMENODE.getId())
                 .get("some-setting-4"));
+    boolean caught = false;
+    try {
+      cluster.getServiceConfiguration().get("3").get(CmServerServiceType.HDFS_NAMENODE.getId())
+          .put("some-setting-3", "some-value-mutated");
+    } catch (UnsupportedOperationException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
     Assert.assertEquals("some-value-3",
         cluster.getServiceConfiguration(3).get(CmServerServiceType.HDFS_NAMENODE.getId()).get("some-setting-3"));
     Assert.assertEquals(null,
@@ -245,6 +254,32 @@ public class CmServerClusterTest extends BaseTestServer {
         cluster.getServiceConfiguration(10).get(CmServerServiceType.HDFS_NAMENODE.getId()).get("some-setting-4"));
   }
 
+  @Test
+  public void testConfigurationMerged() throws CmServerException {
+    boolean caught = false;
+    CmServerCluster cluster = new CmServerCluster();
+    cluster.addServiceConfiguration("3", CmServerServiceType.HDFS_NAMENODE.getId(), "some-setting", "some-value-3");
+    cluster.addServiceConfiguration("5", CmServerServiceType.HDFS_NAMENODE.getId(), "some-setting", "some-value-5");
+    cluster.addServiceConfiguration("4", CmServerServiceType.HDFS_NAMENODE.getId(), "some-setting", "some-value-4");
+    Assert.assertEquals("some-value-3",
+        cluster.getServiceConfiguration(3).get(CmServerServiceType.HDFS_NAMENODE.getId()).get("some-setting"));
+    Assert.assertEquals("some-value-4",
+        cluster.getServiceConfiguration(4).get(CmServerServiceType.HDFS_NAMENODE.getId()).get("some-setting"));
+    Assert.assertEquals("some-value-5",
+        cluster.getServiceConfiguration(10).get(CmServerServiceType.HDFS_NAMENODE.getId()).get("some-setting"));
+    Assert.assertSame(cluster.getServiceConfiguration(4), cluster.getServiceConfiguration(4));
+    try {
+      cluster.getServiceConfiguration(4).get(CmServerServiceType.HDFS_NAMENODE.getId()).put("some-setting", "");
+    } catch (UnsupportedOperationException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+    cluster.addServiceConfiguration("4", CmServerServiceType.HDFS_DATANODE.getId(), "some-setting", "some-value-4");
+    Assert.assertEquals("some-value-4",
+        cluster.getServiceConfiguration(4).get(CmServerServiceType.HDFS_DATANODE.getId()).get("some-setting"));
+    Assert.assertNull(cluster.getServiceConfiguration(3).get(CmServerServiceType.HDFS_DATANODE.getId()));
+  }
+
   @Test
   public void testService() throws CmServerException {
     Assert.assertTrue(new CmServerServiceBuilder().type(CmServerServiceType.CLUSTER).build()
@@ -298,6 +333,30 @@ public class CmServerClusterTest extends BaseTestServer {
     Assert.assertTrue(caught);
   }
 
+  @Test
+  public void testServiceIdentity() throws CmServerException {
+    CmServerService service2 = new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE).tag(CLUSTER_TAG)
+        .qualifier("2").host("host").build();
+    CmServerService service10 = new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE).tag(CLUSTER_TAG)
+        .qualifier("10").host("host").build();
+    CmServerService serviceGroup = new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE)
+        .tag(CLUSTER_TAG).qualifier(CmServerService.NAME_QUALIFIER_GROUP).host("host").build();
+    CmServerService service2Parsed = new CmServerServiceBuilder().name(service2.getName()).host("host")
+        .status(CmServerServiceStatus.STARTED).build();
+    Assert.assertTrue(service2.compareTo(service10) < 0);
+    Assert.assertTrue(service10.compareTo(serviceGroup) < 0);
+    Assert.assertTrue(service2.compareTo(serviceGroup) < 0);
+    Assert.assertEquals(0, service2.compareTo(service2Parsed));
+    Assert.assertEquals(service2, service2Parsed);
+    Assert.assertEquals(service2.hashCode(), service2Parsed.hashCode());
+    Assert.assertEquals(service2.toString(), service2Parsed.toString());
+    Assert.assertSame(service2.getName(), service2Parsed.getName());
+    Assert.assertFalse(service2.equals(new CmServerServiceBuilder().name(service2.getName()).host("host")
+        .ip("127.0.0.1").build()));
+    Assert.assertTrue(service2.compareTo(new CmServerServiceBuilder().name(service2.getName()).host("host")
+        .ip("127.0.0.1").build()) < 0);
+  }
+
   @Test
   public void testIsEmpty() throws CmServerException {
     CmServerCluster cluster = new CmServerCluster();
@@ -471,6 +530,74 @@ public class CmServerClusterTest extends BaseTestServer {
     Assert.assertEquals(5, i);
   }
 
+  @Test
+  public void testGetServicesIndexed() throws InterruptedException, IOException, CmServerException {
+    boolean caught = false;
+    Assert.assertSame(cluster.getServices(CmServerServiceType.CLUSTER),
+        cluster.getServices(CmServerServiceType.CLUSTER));
+    Assert.assertSame(cluster.getServiceTypes(6, 5), cluster.getServiceTypes(6, 5));
+    try {
+      cluster.getServices(CmServerServiceType.HDFS_DATANODE).clear();
+    } catch (UnsupportedOperationException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+    Assert.assertEquals(3, cluster.getServices(CmServerServiceType.HDFS_DATANODE).size());
+    Assert.assertEquals(4, cluster.getServicesOnHost("host-1").size());
+    Assert.assertEquals(0, cluster.getServicesOnHost("host-5").size());
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE).tag(CLUSTER_TAG)
+        .qualifier("5").host("host-5").ip("192.168.0.5").build());
+    Assert.assertEquals(4, cluster.getServices(CmServerServiceType.HDFS_DATANODE).size());
+    Assert.assertEquals(8, cluster.getServices(CmServerServiceType.CLUSTER).size());
+    Assert.assertEquals(1, cluster.getServicesOnHost("host-5").size());
+    Assert.assertEquals(1, cluster.getServicesOnHost("192.168.0.5").size());
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.YARN_NODE_MANAGER).tag(CLUSTER_TAG)
+        .qualifier("6").host("host-5").build());
+    Assert.assertTrue(cluster.getServiceTypes().contains(CmServerServiceType.YARN));
+    Assert.assertTrue(cluster.getServiceTypes(6, 5).contains(CmServerServiceType.YARN));
+    Assert.assertFalse(cluster.getServiceTypes(5, 4).contains(CmServerServiceType.YARN));
+    Assert.assertEquals(2, cluster.getServicesOnHost("host-5").size());
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException, CmServerException {
+    final int nodes = 200;
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (cluster.getAgents().size() < nodes) {
+              int size = 0;
+              for (CmServerService service : cluster.getServices(CmServerServiceType.CLUSTER)) {
+                size += service.getType() == null ? 0 : 1;
+              }
+              Assert.assertTrue(size >= 7);
+              Assert.assertFalse(cluster.getServiceTypes(CmServerServiceType.CLUSTER, 6, 5).isEmpty());
+              cluster.getServicesOnHost("host-" + nodes / 2).size();
+            }
+          } catch (Throwable throwable) {
+            failed.set(true);
+          }
+        }
+      };
+      readers[i].start();
+    }
+    for (int i = 5; i < nodes + 5; i++) {
+      cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE).tag(CLUSTER_TAG)
+          .qualifier("" + i).host("host-" + i).build());
+      cluster.addAgent(new CmServerServiceBuilder().host("host-" + i).build());
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    Assert.assertFalse(failed.get());
+    Assert.assertEquals(nodes + 3, cluster.getServices(CmServerServiceType.HDFS_DATANODE).size());
+    Assert.assertEquals(nodes + 1, cluster.getAgents().size());
+  }
+
   @Test
   public void testGetService() throws InterruptedException, IOException {
     Assert.assertNotNull(cluster.getService(CmServerServiceType.CLUSTER));
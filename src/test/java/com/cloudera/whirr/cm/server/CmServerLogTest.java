@@ -0,0 +1,306 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloudera.whirr.cm.server.impl.CmServerLog;
+import com.cloudera.whirr.cm.server.impl.CmServerLogHistory;
+import com.cloudera.whirr.cm.server.impl.CmServerLogJson;
+import com.cloudera.whirr.cm.server.impl.CmServerLogJsonSink;
+import com.cloudera.whirr.cm.server.impl.CmServerLogProgress;
+import com.cloudera.whirr.cm.server.impl.CmServerLogTee;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class CmServerLogTest extends BaseTestServer {
+
+  private static class CmServerLogCapture extends CmServerLog.CmServerLogNull {
+
+    private List<String> messages = new ArrayList<String>();
+
+    public CmServerLogCapture(String tag) {
+      super(tag, false);
+    }
+
+    @Override
+    protected void logMessage(String message) {
+      messages.add(message);
+    }
+
+  }
+
+  private static class CmServerLogSysOutCapture extends CmServerLog.CmServerLogSysOut {
+
+    private List<String> messages = new ArrayList<String>();
+
+    public CmServerLogSysOutCapture(String tag) {
+      super(tag, false);
+    }
+
+    @Override
+    protected void logMessage(String message) {
+      messages.add(message);
+    }
+
+  }
+
+  @Test
+  public void testLogEstimate() {
+    CmServerLogSysOutCapture logger1 = new CmServerLogSysOutCapture("TAG1");
+    CmServerLogSysOutCapture logger2 = new CmServerLogSysOutCapture("TAG2");
+    logger1.logOperationEstimate("ClusterStart", 1000, 0);
+    logger2.logOperationEstimate("ClusterStart", 120000, 0);
+    logger1.logOperationStartedSync("ClusterStart");
+    logger2.logOperationStartedSync("ClusterStart");
+    logger1.logOperationFinishedSync("ClusterStart");
+    logger2.logOperationFinishedSync("ClusterStart");
+    logger1.logOperationStartedSync("ClusterStart");
+    Assert.assertEquals("TAG1 [ClusterStart] started, eta 1s", logger1.messages.get(0));
+    Assert.assertEquals("TAG2 [ClusterStart] started, eta 2m00s", logger2.messages.get(0));
+    Assert.assertTrue(logger1.messages.get(1).startsWith("TAG1 [ClusterStart] finished in "));
+    Assert.assertTrue(logger2.messages.get(1).startsWith("TAG2 [ClusterStart] finished in "));
+    Assert.assertEquals("TAG1 [ClusterStart] started", logger1.messages.get(2));
+  }
+
+  @Test
+  public void testLogOperation() {
+    CmServerLogCapture logger = new CmServerLogCapture("TAG");
+    logger.logOperation("Op", "message");
+    logger.logOperation("", "message");
+    logger.logOperation(null, "message");
+    logger.logOperation("Op", (String) null);
+    Assert.assertEquals("TAG [Op] message", logger.messages.get(0));
+    Assert.assertEquals("TAG message", logger.messages.get(1));
+    Assert.assertEquals("message", logger.messages.get(2));
+    Assert.assertEquals("TAG [Op] ", logger.messages.get(3));
+    logger = new CmServerLogCapture(null);
+    logger.logOperation("Op", "message");
+    Assert.assertEquals("Op message", logger.messages.get(0));
+  }
+
+  @Test
+  public void testLogOperationStackTrace() {
+    CmServerLogCapture logger = new CmServerLogCapture(null);
+    logger.logOperationStackTrace(new Exception("outer", new Exception("middle", new Exception("inner"))));
+    int outer = 0, middle = 0, inner = 0;
+    for (String message : logger.messages) {
+      outer += message.contains("java.lang.Exception: outer") ? 1 : 0;
+      middle += message.contains("java.lang.Exception: middle") ? 1 : 0;
+      inner += message.contains("java.lang.Exception: inner") ? 1 : 0;
+    }
+    Assert.assertEquals(1, outer);
+    Assert.assertEquals(1, middle);
+    Assert.assertEquals(1, inner);
+  }
+
+  @Test
+  public void testLogSysOutAsync() throws Exception {
+    PrintStream out = System.out;
+    ByteArrayOutputStream capture = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(capture, true));
+    try {
+      CmServerLog logger = new CmServerLog.CmServerLogSysOutAsync("TAG", false);
+      for (int i = 0; i < 10000; i++) {
+        logger.logOperation("Op", "" + i);
+      }
+      CmServerLog.CmServerLogSysOutAsync.flush();
+      String[] messages = capture.toString().split(System.getProperty("line.separator"));
+      Assert.assertEquals(10000, messages.length);
+      for (int i = 0; i < 10000; i++) {
+        Assert.assertEquals("TAG [Op] " + i, messages[i]);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+  @Test
+  public void testLogSysOutAsyncInterrupted() throws Exception {
+    PrintStream out = System.out;
+    ByteArrayOutputStream capture = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(capture, true));
+    try {
+      CmServerLog logger = new CmServerLog.CmServerLogSysOutAsync("TAG", false);
+      Thread.currentThread().interrupt();
+      logger.logOperation("Op", "interrupted");
+      Assert.assertTrue(Thread.interrupted());
+      CmServerLog.CmServerLogSysOutAsync.flush();
+      Assert.assertTrue(capture.toString().contains("TAG [Op] interrupted"));
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+  @Test
+  public void testLogJson() throws Exception {
+    StringWriter writer = new StringWriter();
+    CmServerLogJson logger = new CmServerLogJson("TAG", false, writer);
+    logger.logOperationContext("StartHdfs", "cluster", "hdfs", 7L);
+    logger.logOperationStartedAsync("StartHdfs");
+    logger.logOperationInProgressAsync("StartHdfs");
+    logger.logOperationInProgressAsync("StartHdfs");
+    logger.logOperationInProgressSync("StartHdfs", "detail");
+    logger.logOperation("StartHdfs", "ignored \"message\"");
+    logger.logOperationFailedAsync("StartHdfs", new Exception("some \"quoted\" error"));
+    String[] events = writer.toString().split("\n");
+    Assert.assertEquals(3, events.length);
+    Assert.assertTrue(events[0].contains("\"phase\":\"started\""));
+    Assert.assertTrue(events[0].contains("\"cluster\":\"cluster\",\"service\":\"hdfs\",\"command\":7"));
+    Assert.assertTrue(events[1].contains("\"phase\":\"in-progress\""));
+    Assert.assertTrue(events[1].contains("\"detail\":\"detail\""));
+    Assert.assertTrue(events[1].contains("\"duration\":"));
+    Assert.assertTrue(events[2].contains("\"status\":\"failed\""));
+    Assert.assertTrue(events[2].contains("some \\\"quoted\\\" error"));
+  }
+
+  @Test
+  public void testLogJsonShared() throws Exception {
+    StringWriter writer = new StringWriter();
+    CmServerLogJsonSink sink = new CmServerLogJsonSink(writer);
+    CmServerLogJson logger1 = new CmServerLogJson("TAG1", false, sink);
+    CmServerLogJson logger2 = new CmServerLogJson("TAG2", false, sink);
+    logger1.logOperationContext("ClusterInit", "cluster1", null, null);
+    logger1.logOperationStartedSync("ClusterInit");
+    logger2.logOperationContext("ClusterInit", "cluster2", null, null);
+    logger2.logOperationStartedSync("ClusterInit");
+    logger1.logOperationFinishedSync("ClusterInit");
+    logger2.logOperationFinishedSync("ClusterInit");
+    logger2.logOperationStartedSync("ClusterStart");
+    String[] events = writer.toString().split("\n");
+    Assert.assertEquals(5, events.length);
+    Assert.assertTrue(events[2].contains("\"tag\":\"TAG1\""));
+    Assert.assertTrue(events[2].contains("\"duration\":"));
+    Assert.assertTrue(events[2].contains("\"cluster\":\"cluster1\""));
+    Assert.assertTrue(events[3].contains("\"tag\":\"TAG2\""));
+    Assert.assertTrue(events[3].contains("\"duration\":"));
+    Assert.assertTrue(events[3].contains("\"cluster\":\"cluster2\""));
+    sink.close();
+    logger2.logOperationFinishedSync("ClusterStart");
+    Assert.assertEquals(5, writer.toString().split("\n").length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testLogJsonSinkUnreachable() throws Exception {
+    CmServerLogJsonSink.getSink("localhost:1");
+  }
+
+  @Test
+  public void testLogMetric() throws Exception {
+    StringWriter writer = new StringWriter();
+    CmServerLogCapture capture = new CmServerLogCapture("TAG");
+    CmServerLog logger = new CmServerLogTee(capture, new CmServerLogJson("TAG", false, writer));
+    logger.logOperationMetric("Op", "cache.cluster.hits", 42);
+    logger.logOperationMetric("Op", null, 1);
+    Assert.assertTrue(capture.messages.isEmpty());
+    String[] events = writer.toString().split("\n");
+    Assert.assertEquals(1, events.length);
+    Assert.assertTrue(events[0].contains("\"phase\":\"metric\",\"metric\":\"cache.cluster.hits\",\"value\":42}"));
+  }
+
+  @Test
+  public void testLogProgress() throws Exception {
+    final List<String> progress = Collections.synchronizedList(new ArrayList<String>());
+    CmServerLog logger = new CmServerLog.CmServerLogNull() {
+      @Override
+      public void logOperationInProgressAsync(String operation) {
+        progress.add(operation);
+      }
+    };
+    CmServerLogProgress logProgress = new CmServerLogProgress(1, 3, 2);
+    logProgress.start(logger, "OpA");
+    logProgress.start(logger, "OpB");
+    Assert.assertEquals(2, logProgress.size());
+    long timeout = System.currentTimeMillis() + 10000;
+    while (!(progress.contains("OpA") && progress.contains("OpB")) && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(progress.contains("OpA"));
+    Assert.assertTrue(progress.contains("OpB"));
+    Assert.assertTrue(logProgress.stop(logger, "OpA"));
+    Assert.assertFalse(logProgress.stop(logger, "OpA"));
+    Assert.assertFalse(logProgress.isRunning(logger, "OpA"));
+    Assert.assertTrue(logProgress.isRunning(logger, "OpB"));
+    Assert.assertTrue(logProgress.stop(logger, "OpB"));
+    Assert.assertEquals(0, logProgress.size());
+  }
+
+  @Test
+  public void testLogTee() throws Exception {
+    StringWriter writer = new StringWriter();
+    CmServerLogCapture capture = new CmServerLogCapture(null);
+    final List<String> executed = new ArrayList<String>();
+    CmServerLog logger = new CmServerLogTee(capture, new CmServerLogJson(null, false, writer));
+    logger.logOperation("Op", new CmServerLog.CmServerLogSyncCommand() {
+      @Override
+      public void execute() throws Exception {
+        executed.add("Op");
+      }
+    });
+    logger.logOperation("Op", "message");
+    Assert.assertEquals(1, executed.size());
+    Assert.assertEquals(1, capture.messages.size());
+    Assert.assertEquals(2, writer.toString().split("\n").length);
+  }
+
+  @Test
+  public void testLogHistory() throws Exception {
+    File file = File.createTempFile("whirr-cm-history", ".tsv");
+    file.delete();
+    file.deleteOnExit();
+    CmServerLogHistory history = new CmServerLogHistory(file);
+    Assert.assertEquals(CmServerLogHistory.DURATION_UNKNOWN, history.getEstimate("5.0.0", "5", 3, "ClusterStart"));
+    for (int i = 1; i <= 20; i++) {
+      history.record("5.0.0", "5", 3, "ClusterStart", i * 1000);
+    }
+    history.record("5.0.0", "5", 10, "ClusterStart", 100000);
+    history = new CmServerLogHistory(file);
+    Assert.assertEquals(10000, history.getEstimate("5.0.0", "5", 3, "ClusterStart"));
+    Assert.assertEquals(19000, history.getPercentile("5.0.0", "5", 3, "ClusterStart", 95));
+    Assert.assertEquals(100000, history.getEstimate("5.0.0", "5", 10, "ClusterStart"));
+    Assert.assertEquals(11000, history.getEstimate("5.0.0", "5", 5, "ClusterStart"));
+    Assert.assertEquals(CmServerLogHistory.DURATION_UNKNOWN, history.getEstimate("5.0.0", "4", 3, "ClusterStart"));
+    Assert.assertSame(CmServerLogHistory.getHistory(file.getAbsolutePath()),
+        CmServerLogHistory.getHistory(file.getAbsolutePath()));
+    Assert.assertEquals(10000, CmServerLogHistory.getHistory(file.getAbsolutePath()).getEstimate("5.0.0", "5", 3,
+        "ClusterStart"));
+    history = new CmServerLogHistory(file);
+    for (int i = 1; i <= 500; i++) {
+      history.record("5.0.0", "5", 3, "ClusterStop", i * 1000);
+    }
+    Assert.assertTrue(Files.readLines(file, Charsets.UTF_8).size() <= 2 * (20 + 1 + 50));
+    history = new CmServerLogHistory(file);
+    Assert.assertEquals(475000, history.getEstimate("5.0.0", "5", 3, "ClusterStop"));
+    Assert.assertEquals(10000, history.getEstimate("5.0.0", "5", 3, "ClusterStart"));
+    Assert.assertEquals(100000, history.getEstimate("5.0.0", "5", 10, "ClusterStart"));
+    history = CmServerLogHistory.getHistory("");
+    history.record("5.0.0", "5", 3, "ClusterStart", 1000);
+    Assert.assertEquals(CmServerLogHistory.DURATION_UNKNOWN, history.getEstimate("5.0.0", "5", 3, "ClusterStart"));
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloudera.whirr.cm.server.CmServerService.CmServerServiceStatus;
+
+public class CmServerSimulatedTest extends BaseTestServer {
+
+  private static CmServerCluster getCluster(int size) throws CmServerException {
+    CmServerCluster cluster = new CmServerCluster();
+    cluster.setServer(new CmServerServiceBuilder().ip("10.0.0.1").build());
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.HDFS_NAMENODE).tag(CLUSTER_TAG)
+        .qualifier("1").ip("10.0.1.1").build());
+    cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.HDFS_SECONDARY_NAMENODE).tag(CLUSTER_TAG)
+        .qualifier("1").ip("10.0.1.1").build());
+    for (int i = 1; i <= size; i++) {
+      String ip = "10.0." + (i / 250 + 1) + "." + (i % 250 + 1);
+      cluster.addAgent(new CmServerServiceBuilder().ip(ip).build());
+      cluster.addService(new CmServerServiceBuilder().type(CmServerServiceType.HDFS_DATANODE).tag(CLUSTER_TAG)
+          .qualifier("" + i).ip(ip).build());
+    }
+    return cluster;
+  }
+
+  @Test
+  public void testLifecycle() throws CmServerException {
+    CmServerCluster cluster = getCluster(3);
+    CmServer server = getSimulatedServer(cluster);
+    Assert.assertFalse(server.isProvisioned(cluster));
+    Assert.assertTrue(server.provision(cluster));
+    Assert.assertTrue(server.isProvisioned(cluster));
+    Assert.assertTrue(server.configure(cluster));
+    Assert.assertTrue(server.isConfigured(cluster));
+    Assert.assertTrue(server.start(cluster));
+    Assert.assertTrue(server.isStarted(cluster));
+    CmServerCluster clusterView = server.getServices(cluster);
+    Assert.assertEquals(5, clusterView.getServices(CmServerServiceType.CLUSTER).size());
+    for (CmServerService service : clusterView.getServices(CmServerServiceType.CLUSTER)) {
+      Assert.assertEquals(CmServerServiceStatus.STARTED, service.getStatus());
+    }
+    Assert.assertTrue(server.stop(cluster));
+    Assert.assertTrue(server.isStopped(cluster));
+    Assert.assertTrue(server.unconfigure(cluster));
+    Assert.assertFalse(server.isConfigured(cluster));
+    Assert.assertTrue(server.unprovision(cluster));
+    Assert.assertFalse(server.isProvisioned(cluster));
+    Assert.assertTrue(simulator.getClock() > 0);
+  }
+
+  @Test
+  public void testLifecycleLarge() throws CmServerException {
+    CmServerCluster cluster = getCluster(1000);
+    CmServer server = getSimulatedServer(cluster);
+    Assert.assertTrue(server.start(cluster));
+    Assert.assertTrue(server.isStarted(cluster));
+    Assert.assertEquals(1002, server.getServices(cluster).getServices(CmServerServiceType.CLUSTER).size());
+  }
+
+  @Test
+  public void testParcelStages() throws CmServerException {
+    CmServerCluster cluster = getCluster(3);
+    Assert.assertTrue(getSimulatedServer(cluster).provision(cluster));
+    Assert.assertEquals(1, simulator.getCommands("startDownloadCommand"));
+    Assert.assertEquals(1, simulator.getCommands("startDistributionCommand"));
+    Assert.assertEquals(1, simulator.getCommands("activateCommand"));
+    setupSimulator();
+    simulator.setParcelStage("CDH", "DOWNLOADED");
+    Assert.assertTrue(getSimulatedServer(cluster).provision(cluster));
+    Assert.assertEquals(0, simulator.getCommands("startDownloadCommand"));
+    Assert.assertEquals(1, simulator.getCommands("startDistributionCommand"));
+    Assert.assertEquals(1, simulator.getCommands("activateCommand"));
+    setupSimulator();
+    simulator.setParcelStage("CDH", "DISTRIBUTED");
+    Assert.assertTrue(getSimulatedServer(cluster).provision(cluster));
+    Assert.assertEquals(0, simulator.getCommands("startDownloadCommand"));
+    Assert.assertEquals(0, simulator.getCommands("startDistributionCommand"));
+    Assert.assertEquals(1, simulator.getCommands("activateCommand"));
+  }
+
+  @Test
+  public void testCommandFailure() throws CmServerException {
+    CmServerCluster cluster = getCluster(3);
+    simulator.setCommandFailureRate(1);
+    boolean caught = false;
+    try {
+      getSimulatedServer(cluster).provision(cluster);
+    } catch (CmServerException e) {
+      caught = true;
+    }
+    Assert.assertTrue(caught);
+  }
+
+}
@@ -0,0 +1,566 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.whirr.cm.server.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.cxf.jaxrs.ext.multipart.InputStreamDataSource;
+
+import com.cloudera.api.ApiRootResource;
+import com.cloudera.api.model.ApiBulkCommandList;
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.model.ApiClusterRef;
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiCommandList;
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostList;
+import com.cloudera.api.model.ApiListBase;
+import com.cloudera.api.model.ApiParcel;
+import com.cloudera.api.model.ApiParcelList;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleConfigGroup;
+import com.cloudera.api.model.ApiRoleConfigGroupList;
+import com.cloudera.api.model.ApiRoleList;
+import com.cloudera.api.model.ApiRoleNameList;
+import com.cloudera.api.model.ApiRoleState;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.model.ApiServiceList;
+import com.cloudera.api.model.ApiServiceRef;
+import com.cloudera.api.model.ApiServiceState;
+import com.cloudera.whirr.cm.server.CmServer;
+import com.cloudera.whirr.cm.server.CmServerCluster;
+import com.cloudera.whirr.cm.server.CmServerException;
+import com.cloudera.whirr.cm.server.CmServerService;
+import com.cloudera.whirr.cm.server.CmServerServiceType;
+import com.cloudera.whirr.cm.server.CmServerServiceTypeCms;
+
+// In-process stand-in for the CM REST API, implementing the subset of the v3-v6 resources CmServerImpl drives by
+// proxying the client resource interfaces. Time is simulated, every command or parcel poll advances the clock.
+public class CmServerApiSimulator {
+
+  public static final long CLOCK_TICK_DEFAULT_MS = 1000;
+  public static final long COMMAND_DURATION_DEFAULT_MS = 5000;
+
+  private static final String MGMT_SERVICE = CmServerServiceTypeCms.MANAGEMENT.getName();
+
+  private static final Map<String, String[][]> PARCELS = new HashMap<String, String[][]>();
+  static {
+    PARCELS.put("CDH4", new String[][] { { "CDH", "4.7.0-1.cdh4.7.0.p0.17" },
+        { "IMPALA", "1.4.0-1.cdh4.p0.1" }, { "SOLR", "1.3.0-1.cdh4.5.0.p0.4" }, { "SPARK", "0.9.0-1.cdh4.6.0.p0.98" } });
+    PARCELS.put("CDH5", new String[][] { { "CDH", "5.1.0-1.cdh5.1.0.p0.53" } });
+  }
+
+  private long clock;
+  private long clockTick = CLOCK_TICK_DEFAULT_MS;
+  private long commandDuration = COMMAND_DURATION_DEFAULT_MS;
+  private Map<String, Long> commandDurations = new HashMap<String, Long>();
+  private Map<String, String> parcelStages = new HashMap<String, String>();
+  private double commandFailureRate;
+  private Random random = new Random(0);
+  private long requests;
+
+  private long commandId;
+  private Map<Long, Command> commands = new LinkedHashMap<Long, Command>();
+  private Map<String, ApiHost> hosts = new LinkedHashMap<String, ApiHost>();
+  private Map<String, String> config = new LinkedHashMap<String, String>();
+  private Map<String, Cluster> clusters = new LinkedHashMap<String, Cluster>();
+  private ApiService mgmt;
+  private Map<String, ApiRoleConfigGroup> mgmtGroups = new LinkedHashMap<String, ApiRoleConfigGroup>();
+
+  public synchronized CmServerApiSimulator setClockTick(long clockTick) {
+    this.clockTick = clockTick;
+    return this;
+  }
+
+  public synchronized CmServerApiSimulator setCommandDuration(long commandDuration) {
+    this.commandDuration = commandDuration;
+    return this;
+  }
+
+  public synchronized CmServerApiSimulator setCommandDuration(String command, long commandDuration) {
+    commandDurations.put(command, commandDuration);
+    return this;
+  }
+
+  // Parcels of the product start out at the stage in clusters created from now on, as if pre-seeded or pre-baked
+  public synchronized CmServerApiSimulator setParcelStage(String product, String stage) {
+    parcelStages.put(product, stage);
+    return this;
+  }
+
+  public synchronized CmServerApiSimulator setCommandFailureRate(double commandFailureRate) {
+    this.commandFailureRate = commandFailureRate;
+    return this;
+  }
+
+  public synchronized long getClock() {
+    return clock;
+  }
+
+  public synchronized long getRequests() {
+    return requests;
+  }
+
+  public synchronized int getCommands(String name) {
+    int count = 0;
+    for (Command command : commands.values()) {
+      if (command.command.getName().equals(name)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public synchronized String addHost(String ip) {
+    for (ApiHost host : hosts.values()) {
+      if (host.getIpAddress().equals(ip)) {
+        return host.getHostId();
+      }
+    }
+    ApiHost host = new ApiHost();
+    host.setHostId("host-" + (hosts.size() + 1));
+    host.setHostname(host.getHostId() + ".simulated");
+    host.setIpAddress(ip);
+    hosts.put(host.getHostId(), host);
+    return host.getHostId();
+  }
+
+  public synchronized CmServerApiSimulator addHosts(CmServerCluster cluster) {
+    if (cluster.getServer() != null) {
+      addHost(cluster.getServer().getIp());
+    }
+    for (CmServerService agent : cluster.getAgents()) {
+      addHost(agent.getIp());
+    }
+    for (CmServerService node : cluster.getNodes()) {
+      addHost(node.getIp());
+    }
+    for (CmServerService service : cluster.getServices(CmServerServiceType.CLUSTER)) {
+      addHost(service.getIp());
+    }
+    return this;
+  }
+
+  public CmServer getCmServer(String version, String versionApi, String versionCdh, String ip, CmServerLog logger)
+      throws CmServerException {
+    addHost(ip);
+    // the simulated clock advances per poll, so real waiting between polls only slows the simulation down
+    return new CmServerImpl(version, versionApi, versionCdh, ip, ip, getApiRootResource(), logger, null, 0);
+  }
+
+  public ApiRootResource getApiRootResource() {
+    return proxy(ApiRootResource.class, new Context("root", null, null, null, null));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T proxy(Class<T> type, final Context context) {
+    return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+        if (method.getDeclaringClass().equals(Object.class)) {
+          if (method.getName().equals("equals")) {
+            return proxy == arguments[0];
+          } else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+          }
+          return context.toString();
+        }
+        return dispatch(method, arguments == null ? new Object[0] : arguments, context);
+      }
+    });
+  }
+
+  private synchronized Object dispatch(Method method, Object[] arguments, Context context) throws IOException {
+    requests++;
+    String name = method.getName();
+    Class<?> returnType = method.getReturnType();
+    if (returnType.isInterface() && name.startsWith("get") && name.endsWith("Resource")) {
+      return proxy(returnType, context.child(name, arguments));
+    }
+    Cluster cluster = context.cluster == null ? null : clusters.get(context.cluster);
+    if (context.kind.equals("getClouderaManagerResource")) {
+      if (name.equals("getConfig")) {
+        return getConfig();
+      } else if (name.equals("updateConfig")) {
+        for (ApiConfig apiConfig : (ApiConfigList) arguments[0]) {
+          config.put(apiConfig.getName(), apiConfig.getValue());
+        }
+        return getConfig();
+      } else if (name.equals("readLicense") || name.equals("beginTrial")) {
+        return null;
+      }
+    } else if (context.kind.equals("getMgmtServiceResource")) {
+      if (name.equals("readService")) {
+        return mgmt;
+      } else if (name.equals("setupCMS")) {
+        mgmt = (ApiService) arguments[0];
+        mgmt.setServiceState(ApiServiceState.STOPPED);
+        for (ApiRole role : mgmt.getRoles()) {
+          mgmtGroups.put(role.getType(), newRoleConfigGroup(null, MGMT_SERVICE, role.getType()));
+        }
+        return mgmt;
+      } else if (name.equals("startCommand")) {
+        return newCommand("Start", null, MGMT_SERVICE, new Runnable() {
+          @Override
+          public void run() {
+            mgmt.setServiceState(ApiServiceState.STARTED);
+          }
+        });
+      }
+    } else if (context.kind.equals("getRoleConfigGroupsResource") && context.service == null) {
+      if (name.equals("readRoleConfigGroups")) {
+        return list(new ApiRoleConfigGroupList(), mgmtGroups.values());
+      } else if (name.equals("updateRoleConfigGroup")) {
+        return updateRoleConfigGroup(mgmtGroups, (String) arguments[0], (ApiRoleConfigGroup) arguments[1]);
+      }
+    } else if (context.kind.equals("getClustersResource")) {
+      if (name.equals("readClusters")) {
+        ApiClusterList apiClusters = new ApiClusterList();
+        for (Cluster clusterTmp : clusters.values()) {
+          apiClusters.add(clusterTmp.cluster);
+        }
+        return apiClusters;
+      } else if (name.equals("createClusters")) {
+        for (ApiCluster apiCluster : (ApiClusterList) arguments[0]) {
+          clusters.put(apiCluster.getName(), new Cluster(apiCluster));
+        }
+        return arguments[0];
+      } else if (name.equals("deleteCluster")) {
+        Cluster clusterDeleted = clusters.remove(arguments[0]);
+        return clusterDeleted == null ? null : clusterDeleted.cluster;
+      } else if (name.equals("addHosts")) {
+        return arguments[1];
+      } else if (name.equals("deployClientConfig")) {
+        return newCommand("DeployClusterClientConfig", (String) arguments[0], null, null);
+      }
+    } else if (context.kind.equals("getServicesResource") && cluster != null) {
+      if (name.equals("readServices")) {
+        return list(new ApiServiceList(), cluster.services.values());
+      } else if (name.equals("createServices")) {
+        for (ApiService apiService : (ApiServiceList) arguments[0]) {
+          createService(cluster, apiService);
+        }
+        return arguments[0];
+      } else if (name.equals("deleteService")) {
+        cluster.roles.remove(arguments[0]);
+        cluster.groups.remove(arguments[0]);
+        return cluster.services.remove(arguments[0]);
+      } else if (name.equals("startCommand") || name.equals("stopCommand")) {
+        final ApiService apiService = cluster.services.get(arguments[0]);
+        final Map<String, ApiRole> apiRoles = cluster.roles.get(arguments[0]);
+        final boolean start = name.equals("startCommand");
+        return newCommand(start ? "Start" : "Stop", context.cluster, (String) arguments[0], new Runnable() {
+          @Override
+          public void run() {
+            if (apiService != null) {
+              apiService.setServiceState(start ? ApiServiceState.STARTED : ApiServiceState.STOPPED);
+            }
+            if (apiRoles != null) {
+              for (ApiRole apiRole : apiRoles.values()) {
+                apiRole.setRoleState(start ? ApiRoleState.STARTED : ApiRoleState.STOPPED);
+              }
+            }
+          }
+        });
+      } else if (name.equals("listActiveCommands")) {
+        ApiCommandList apiCommands = new ApiCommandList();
+        for (Command command : commands.values()) {
+          if (command.command.getEndTime() == null && command.command.getServiceRef() != null
+              && command.command.getServiceRef().getServiceName().equals(arguments[0])) {
+            apiCommands.add(command.command);
+          }
+        }
+        return apiCommands;
+      } else if (name.equals("getClientConfig")) {
+        return getClientConfig((String) arguments[0]);
+      }
+    } else if (context.kind.equals("getRolesResource") && cluster != null) {
+      if (name.equals("readRoles")) {
+        return list(new ApiRoleList(), cluster.roles.containsKey(context.service) ? cluster.roles.get(context.service)
+            .values() : new ArrayList<ApiRole>());
+      }
+    } else if (context.kind.equals("getRoleConfigGroupsResource") && cluster != null) {
+      Map<String, ApiRoleConfigGroup> groups = cluster.groups.get(context.service);
+      if (name.equals("readRoleConfigGroups")) {
+        return list(new ApiRoleConfigGroupList(), groups == null ? new ArrayList<ApiRoleConfigGroup>() : groups
+            .values());
+      } else if (name.equals("updateRoleConfigGroup") && groups != null) {
+        return updateRoleConfigGroup(groups, (String) arguments[0], (ApiRoleConfigGroup) arguments[1]);
+      }
+    } else if (context.kind.equals("getRoleCommandsResource")) {
+      ApiBulkCommandList apiCommands = new ApiBulkCommandList();
+      for (int i = 0; i < ((ApiRoleNameList) arguments[0]).size(); i++) {
+        apiCommands.add(newCommand(name, context.cluster, context.service, null));
+      }
+      return apiCommands;
+    } else if (context.kind.equals("getParcelsResource") && cluster != null) {
+      if (name.equals("readParcels")) {
+        advance();
+        return list(new ApiParcelList(), cluster.parcels.values());
+      }
+    } else if (context.kind.equals("getParcelResource") && cluster != null) {
+      final ApiParcel apiParcel = cluster.parcels.get(context.product + context.version);
+      if (name.equals("readParcel")) {
+        advance();
+        return apiParcel;
+      } else if (apiParcel != null) {
+        // each command moves the parcel through its transient stage, completing on the simulated clock
+        final String[] stages = name.equals("startDownloadCommand") ? new String[] { "DOWNLOADING", "DOWNLOADED" }
+            : name.equals("startDistributionCommand") ? new String[] { "DISTRIBUTING", "DISTRIBUTED" } : name
+                .equals("activateCommand") ? new String[] { "ACTIVATING", "ACTIVATED" } : null;
+        if (stages != null) {
+          apiParcel.setStage(stages[0]);
+          return newCommand(name, context.cluster, null, new Runnable() {
+            @Override
+            public void run() {
+              apiParcel.setStage(stages[1]);
+            }
+          });
+        }
+      }
+    } else if (context.kind.equals("getCommandsResource")) {
+      if (name.equals("readCommand")) {
+        advance();
+        Command command = commands.get(arguments[0]);
+        return command == null ? null : command.command;
+      }
+    } else if (context.kind.equals("getHostsResource")) {
+      if (name.equals("readHosts")) {
+        return list(new ApiHostList(), hosts.values());
+      } else if (name.equals("readHost")) {
+        return hosts.get(arguments[0]);
+      }
+    }
+    if (returnType.equals(ApiCommand.class)) {
+      return newCommand(name, context.cluster,
+          arguments.length > 0 && arguments[0] instanceof String ? (String) arguments[0] : context.service, null);
+    }
+    if (returnType.equals(ApiBulkCommandList.class)) {
+      ApiBulkCommandList apiCommands = new ApiBulkCommandList();
+      apiCommands.add(newCommand(name, context.cluster, context.service, null));
+      return apiCommands;
+    }
+    return null;
+  }
+
+  private void advance() {
+    clock += clockTick;
+    for (Command command : commands.values()) {
+      if (command.command.getEndTime() == null && command.end <= clock) {
+        command.command.setEndTime(new Date(clock));
+        command.command.setActive(false);
+        command.command.setSuccess(command.success);
+        if (command.success && command.completion != null) {
+          command.completion.run();
+        }
+      }
+    }
+  }
+
+  private ApiCommand newCommand(String name, String cluster, String service, Runnable completion) {
+    Long duration = commandDurations.get(name);
+    ApiCommand apiCommand = new ApiCommand();
+    apiCommand.setId(++commandId);
+    apiCommand.setName(name);
+    apiCommand.setActive(true);
+    apiCommand.setStartTime(new Date(clock));
+    if (cluster != null) {
+      ApiClusterRef clusterRef = new ApiClusterRef();
+      clusterRef.setClusterName(cluster);
+      apiCommand.setClusterRef(clusterRef);
+    }
+    if (service != null) {
+      ApiServiceRef serviceRef = new ApiServiceRef();
+      serviceRef.setClusterName(cluster);
+      serviceRef.setServiceName(service);
+      apiCommand.setServiceRef(serviceRef);
+    }
+    Command command = new Command(apiCommand, clock + (duration == null ? commandDuration : duration),
+        random.nextDouble() >= commandFailureRate, completion);
+    commands.put(apiCommand.getId(), command);
+    return apiCommand;
+  }
+
+  private void createService(Cluster cluster, ApiService apiService) {
+    apiService.setServiceState(ApiServiceState.STOPPED);
+    Map<String, ApiRole> apiRoles = new LinkedHashMap<String, ApiRole>();
+    Map<String, ApiRoleConfigGroup> groups = new LinkedHashMap<String, ApiRoleConfigGroup>();
+    if (apiService.getRoles() != null) {
+      for (ApiRole apiRole : apiService.getRoles()) {
+        apiRole.setRoleState(ApiRoleState.STOPPED);
+        apiRoles.put(apiRole.getName(), apiRole);
+        if (!groups.containsKey(apiRole.getType())) {
+          groups.put(apiRole.getType(), newRoleConfigGroup(cluster.cluster.getName(), apiService.getName(),
+              apiRole.getType()));
+        }
+      }
+    }
+    cluster.services.put(apiService.getName(), apiService);
+    cluster.roles.put(apiService.getName(), apiRoles);
+    cluster.groups.put(apiService.getName(), groups);
+  }
+
+  private ApiRoleConfigGroup newRoleConfigGroup(String cluster, String service, String roleType) {
+    ApiServiceRef serviceRef = new ApiServiceRef();
+    serviceRef.setClusterName(cluster);
+    serviceRef.setServiceName(service);
+    ApiRoleConfigGroup group = new ApiRoleConfigGroup();
+    group.setName(service + "-" + roleType + "-BASE");
+    group.setRoleType(roleType);
+    group.setServiceRef(serviceRef);
+    group.setConfig(new ApiConfigList());
+    return group;
+  }
+
+  private ApiRoleConfigGroup updateRoleConfigGroup(Map<String, ApiRoleConfigGroup> groups, String name,
+      ApiRoleConfigGroup update) {
+    for (ApiRoleConfigGroup group : groups.values()) {
+      if (group.getName().equals(name)) {
+        if (update.getConfig() != null) {
+          for (ApiConfig apiConfig : update.getConfig()) {
+            group.getConfig().add(apiConfig);
+          }
+        }
+        return group;
+      }
+    }
+    return null;
+  }
+
+  private ApiConfigList getConfig() {
+    ApiConfigList apiConfigs = new ApiConfigList();
+    for (String key : config.keySet()) {
+      apiConfigs.add(new ApiConfig(key, config.get(key)));
+    }
+    return apiConfigs;
+  }
+
+  private InputStreamDataSource getClientConfig(String service) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream(bytes);
+    zip.putNextEntry(new ZipEntry(service + "-conf/core-site.xml"));
+    zip.write(("<configuration><!-- " + service + " --></configuration>").getBytes("UTF-8"));
+    zip.closeEntry();
+    zip.close();
+    return new InputStreamDataSource(new ByteArrayInputStream(bytes.toByteArray()), "application/zip");
+  }
+
+  private static <L extends ApiListBase<T>, T> L list(L list, Iterable<T> values) {
+    for (T value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  private class Cluster {
+
+    private ApiCluster cluster;
+    private Map<String, ApiService> services = new LinkedHashMap<String, ApiService>();
+    private Map<String, Map<String, ApiRole>> roles = new HashMap<String, Map<String, ApiRole>>();
+    private Map<String, Map<String, ApiRoleConfigGroup>> groups = new HashMap<String, Map<String, ApiRoleConfigGroup>>();
+    private Map<String, ApiParcel> parcels = new LinkedHashMap<String, ApiParcel>();
+
+    public Cluster(ApiCluster cluster) {
+      this.cluster = cluster;
+      ApiClusterRef clusterRef = new ApiClusterRef();
+      clusterRef.setClusterName(cluster.getName());
+      String[][] parcelsAvailable = PARCELS.get(cluster.getVersion() == null ? "CDH5" : cluster.getVersion().toString());
+      if (parcelsAvailable != null) {
+        for (String[] parcelAvailable : parcelsAvailable) {
+          ApiParcel parcel = new ApiParcel();
+          parcel.setProduct(parcelAvailable[0]);
+          parcel.setVersion(parcelAvailable[1]);
+          parcel.setStage(parcelStages.containsKey(parcelAvailable[0]) ? parcelStages.get(parcelAvailable[0])
+              : "AVAILABLE_REMOTELY");
+          parcel.setClusterRef(clusterRef);
+          parcels.put(parcelAvailable[0] + parcelAvailable[1], parcel);
+        }
+      }
+    }
+
+  }
+
+  private static class Command {
+
+    private ApiCommand command;
+    private long end;
+    private boolean success;
+    private Runnable completion;
+
+    public Command(ApiCommand command, long end, boolean success, Runnable completion) {
+      this.command = command;
+      this.end = end;
+      this.success = success;
+      this.completion = completion;
+    }
+
+  }
+
+  private static class Context {
+
+    private String kind;
+    private String cluster;
+    private String service;
+    private String product;
+    private String version;
+
+    public Context(String kind, String cluster, String service, String product, String version) {
+      this.kind = kind;
+      this.cluster = cluster;
+      this.service = service;
+      this.product = product;
+      this.version = version;
+    }
+
+    public Context child(String kind, Object[] arguments) {
+      String first = arguments.length > 0 && arguments[0] instanceof String ? (String) arguments[0] : null;
+      if (kind.equals("getServicesResource") || kind.equals("getParcelsResource")) {
+        return new Context(kind, first, null, null, null);
+      } else if (kind.equals("getRolesResource") || kind.equals("getRoleConfigGroupsResource")
+          || kind.equals("getRoleCommandsResource")) {
+        return new Context(kind, cluster, first, null, null);
+      } else if (kind.equals("getParcelResource")) {
+        return new Context(kind, cluster, null, first, (String) arguments[1]);
+      }
+      return new Context(kind, cluster, service, null, null);
+    }
+
+    @Override
+    public String toString() {
+      return kind + "[" + cluster + "," + service + "]";
+    }
+
+  }
+
+}